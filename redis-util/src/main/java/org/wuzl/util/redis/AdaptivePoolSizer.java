@@ -0,0 +1,182 @@
+package org.wuzl.util.redis;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按实际并发和借用等待时间自动调整连接池大小</br>
+ * <ul>
+ * <li>每个周期统计平均借用等待时间、等待的线程数和借出连接数的峰值</li>
+ * <li>平均等待超过targetWaitMillis或有线程在等待时，maxTotal按growFactor扩大，不超过maxTotalLimit</li>
+ * <li>连续quietRounds个周期峰值不到maxTotal的一半时，缩小到峰值的两倍，不低于minTotal</li>
+ * <li>maxIdle与maxTotal一致，minIdle在调整时设为峰值，缩容时关闭多余的空闲连接</li>
+ * </ul>
+ * 每次调整都会记录日志。默认上限为启动时连接池配置的maxTotal
+ *
+ * @author ziliang.wu
+ */
+public class AdaptivePoolSizer {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+	private final ManagedJedisPool pool;
+
+	/**
+	 * maxTotal的下限
+	 */
+	private int minTotal = 8;
+	/**
+	 * maxTotal的上限
+	 */
+	private int maxTotalLimit;
+	/**
+	 * 平均借用等待时间超过该值时扩容，毫秒
+	 */
+	private long targetWaitMillis = 5;
+	/**
+	 * 扩容倍数
+	 */
+	private double growFactor = 1.5;
+	/**
+	 * 连续多少个空闲周期后缩容
+	 */
+	private int quietRounds = 6;
+	/**
+	 * 调整周期，毫秒
+	 */
+	private long intervalMillis = 10000;
+
+	private int quiet;
+
+	private long lastBorrows;
+
+	private long lastWaitMillis;
+
+	private ScheduledExecutorService scheduler;
+
+	public AdaptivePoolSizer() {
+		this(JedisUtil.getInstance().getPool());
+	}
+
+	public AdaptivePoolSizer(ManagedJedisPool pool) {
+		this.pool = pool;
+		this.maxTotalLimit = pool.getMaxTotal();
+	}
+
+	/**
+	 * 启动后台调整线程
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		lastBorrows = pool.getBorrowCount();
+		lastWaitMillis = pool.getBorrowWaitMillis();
+		pool.resetPeakActive();
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-pool-sizer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					adjust();
+				} catch (Exception e) {
+					logger.error("adjust redis pool size error", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		scheduler = null;
+	}
+
+	/**
+	 * 根据上一个周期的统计调整一次
+	 */
+	synchronized void adjust() {
+		long borrows = pool.getBorrowCount();
+		long waitMillis = pool.getBorrowWaitMillis();
+		long count = borrows - lastBorrows;
+		double meanWait = count == 0 ? 0 : (double) (waitMillis - lastWaitMillis) / count;
+		lastBorrows = borrows;
+		lastWaitMillis = waitMillis;
+		int peak = pool.resetPeakActive();
+		int waiters = pool.getNumWaiters();
+		int maxTotal = pool.getMaxTotal();
+		int[] size = nextSize(maxTotal, peak, meanWait, waiters);
+		if (size == null) {
+			return;
+		}
+		logger.info(
+				"resize redis pool,maxTotal:{} -> {},maxIdle:{},minIdle:{},peakActive:{},waiters:{},borrows:{},meanWaitMillis:{}",
+				maxTotal, size[0], size[1], size[2], peak, waiters, count, String.format("%.2f", meanWait));
+		pool.resize(size[0], size[1], size[2]);
+	}
+
+	/**
+	 * 计算新的大小
+	 *
+	 * @return {maxTotal, maxIdle, minIdle}，不需要调整时返回null
+	 */
+	int[] nextSize(int maxTotal, int peak, double meanWait, int waiters) {
+		int target = maxTotal;
+		if (meanWait > targetWaitMillis || waiters > 0) {
+			quiet = 0;
+			target = Math.min(maxTotalLimit, Math.max(maxTotal + 1, (int) Math.ceil(maxTotal * growFactor)));
+		} else if (peak * 2 < maxTotal) {
+			if (++quiet >= quietRounds) {
+				quiet = 0;
+				target = Math.max(minTotal, peak * 2);
+			}
+		} else {
+			quiet = 0;
+		}
+		target = Math.max(minTotal, Math.min(maxTotalLimit, target));
+		// minIdle只在调整maxTotal时跟随峰值，避免每个周期都变化
+		int minIdle = target != maxTotal ? Math.min(peak, target) : Math.min(pool.getMinIdle(), target);
+		if (target == maxTotal && target == pool.getMaxIdle() && minIdle == pool.getMinIdle()) {
+			return null;
+		}
+		return new int[] { target, target, minIdle };
+	}
+
+	public void setMinTotal(int minTotal) {
+		this.minTotal = minTotal;
+	}
+
+	public void setMaxTotalLimit(int maxTotalLimit) {
+		this.maxTotalLimit = maxTotalLimit;
+	}
+
+	public void setTargetWaitMillis(long targetWaitMillis) {
+		this.targetWaitMillis = targetWaitMillis;
+	}
+
+	public void setGrowFactor(double growFactor) {
+		this.growFactor = growFactor;
+	}
+
+	public void setQuietRounds(int quietRounds) {
+		this.quietRounds = quietRounds;
+	}
+
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+	}
+}
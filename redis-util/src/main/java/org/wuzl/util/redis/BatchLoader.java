@@ -0,0 +1,328 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * 请求内的批量加载器</br>
+ * <ul>
+ * <li>{@link #get(String)}和{@link #hget(String, String)}只登记key，返回的结果在第一次取值或调用{@link #dispatch()}时统一加载</li>
+ * <li>一次加载把登记的string key合并为MGET，同一个hash的field合并为HMGET，全部放在一个pipeline中，只有一次网络往返</li>
+ * <li>同一个key(field)在请求内只加载一次，重复调用返回同一个结果</li>
+ * <li>需要组合多个结果时通过{@link Result#toCompletableFuture()}转换，转换前先触发加载，组合后的结果不会一直等待</li>
+ * </ul>
+ * 每个请求创建一个实例，请求结束后丢弃；缓存的是请求开始后第一次读取的值，请求内通过其他方式修改的值需要调用{@link #clear()}
+ *
+ * @author ziliang.wu
+ */
+public class BatchLoader {
+
+	private final JedisUtil jedisUtil;
+
+	/**
+	 * 一条MGET最多包含的key数量
+	 */
+	private int maxBatchSize = 500;
+
+	/**
+	 * 请求内已登记的string结果
+	 */
+	private final Map<String, Result> strings = new HashMap<String, Result>();
+
+	/**
+	 * 请求内已登记的hash结果
+	 */
+	private final Map<String, Map<String, Result>> hashes = new HashMap<String, Map<String, Result>>();
+
+	/**
+	 * 等待加载的string key
+	 */
+	private List<String> queuedKeys = new ArrayList<String>();
+
+	/**
+	 * 等待加载的hash field
+	 */
+	private Map<String, List<String>> queuedFields = new LinkedHashMap<String, List<String>>();
+
+	private int dispatches;
+
+	private int loaded;
+
+	private int deduplicated;
+
+	public BatchLoader() {
+		this.jedisUtil = JedisUtil.getInstance();
+	}
+
+	/**
+	 * 登记一个string key
+	 *
+	 * @return 取值时触发批量加载，key不存在时为null
+	 */
+	public synchronized Result get(String key) {
+		Result result = strings.get(key);
+		if (result != null) {
+			deduplicated++;
+			return result;
+		}
+		result = new Result(this, key, null);
+		strings.put(key, result);
+		queuedKeys.add(key);
+		return result;
+	}
+
+	/**
+	 * 登记一个hash field
+	 *
+	 * @return 取值时触发批量加载，field不存在时为null
+	 */
+	public synchronized Result hget(String key, String field) {
+		Map<String, Result> fields = hashes.get(key);
+		if (fields == null) {
+			fields = new HashMap<String, Result>();
+			hashes.put(key, fields);
+		}
+		Result result = fields.get(field);
+		if (result != null) {
+			deduplicated++;
+			return result;
+		}
+		result = new Result(this, key, field);
+		fields.put(field, result);
+		List<String> queued = queuedFields.get(key);
+		if (queued == null) {
+			queued = new ArrayList<String>();
+			queuedFields.put(key, queued);
+		}
+		queued.add(field);
+		return result;
+	}
+
+	/**
+	 * 加载所有已登记还未加载的key</br>
+	 * 借用连接或整个pipeline失败时这一批的结果都以异常完成，单条命令出错(例如HMGET的key不是hash)时只影响该命令的结果；
+	 * 以异常完成的结果会从缓存中移除，之后重新登记可以再次加载
+	 */
+	public void dispatch() {
+		List<String> keys;
+		Map<String, List<String>> fields;
+		// 每条命令对应的结果，与发出命令的顺序一致
+		List<List<Result>> groups = new ArrayList<List<Result>>();
+		synchronized (this) {
+			if (queuedKeys.isEmpty() && queuedFields.isEmpty()) {
+				return;
+			}
+			keys = queuedKeys;
+			fields = queuedFields;
+			queuedKeys = new ArrayList<String>();
+			queuedFields = new LinkedHashMap<String, List<String>>();
+			dispatches++;
+			for (int i = 0; i < keys.size(); i += maxBatchSize) {
+				List<Result> group = new ArrayList<Result>();
+				for (String key : keys.subList(i, Math.min(i + maxBatchSize, keys.size()))) {
+					group.add(strings.get(key));
+				}
+				groups.add(group);
+			}
+			for (Map.Entry<String, List<String>> entry : fields.entrySet()) {
+				Map<String, Result> hash = hashes.get(entry.getKey());
+				List<Result> group = new ArrayList<Result>();
+				for (String field : entry.getValue()) {
+					group.add(hash.get(field));
+				}
+				groups.add(group);
+			}
+		}
+		List<Response<List<String>>> responses = new ArrayList<Response<List<String>>>(groups.size());
+		Jedis jedis = null;
+		try {
+			jedis = jedisUtil.getJedis();
+			Pipeline pipeline = jedis.pipelined();
+			for (int i = 0; i < keys.size(); i += maxBatchSize) {
+				List<String> batch = keys.subList(i, Math.min(i + maxBatchSize, keys.size()));
+				responses.add(pipeline.mget(batch.toArray(new String[batch.size()])));
+			}
+			for (Map.Entry<String, List<String>> entry : fields.entrySet()) {
+				List<String> batch = entry.getValue();
+				responses.add(pipeline.hmget(entry.getKey(), batch.toArray(new String[batch.size()])));
+			}
+			pipeline.sync();
+		} catch (RuntimeException e) {
+			for (List<Result> group : groups) {
+				fail(group, e);
+			}
+			throw e;
+		} finally {
+			if (jedis != null) {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+		int count = 0;
+		// 在锁外完成，回调中可以继续登记
+		for (int i = 0; i < responses.size(); i++) {
+			List<Result> group = groups.get(i);
+			List<String> values;
+			try {
+				values = responses.get(i).get();
+			} catch (RuntimeException e) {
+				fail(group, e);
+				continue;
+			}
+			for (int j = 0; j < group.size(); j++) {
+				group.get(j).future.complete(values.get(j));
+			}
+			count += group.size();
+		}
+		synchronized (this) {
+			loaded += count;
+		}
+	}
+
+	/**
+	 * 以异常完成并从缓存中移除
+	 */
+	private void fail(List<Result> results, Exception e) {
+		synchronized (this) {
+			for (Result result : results) {
+				if (result.field == null) {
+					strings.remove(result.key, result);
+				} else {
+					Map<String, Result> hash = hashes.get(result.key);
+					if (hash != null) {
+						hash.remove(result.field, result);
+					}
+				}
+			}
+		}
+		for (Result result : results) {
+			result.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * 清除请求内已加载的结果，之后的调用重新从redis读取
+	 */
+	public synchronized void clear() {
+		strings.keySet().retainAll(queuedKeys);
+		for (Map.Entry<String, Map<String, Result>> entry : hashes.entrySet()) {
+			List<String> queued = queuedFields.get(entry.getKey());
+			if (queued == null) {
+				entry.getValue().clear();
+			} else {
+				entry.getValue().keySet().retainAll(queued);
+			}
+		}
+	}
+
+	/**
+	 * @return 实际发出的批量请求次数
+	 */
+	public synchronized int getDispatches() {
+		return dispatches;
+	}
+
+	/**
+	 * @return 加载的key(field)数量
+	 */
+	public synchronized int getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return 重复登记直接返回已有结果的次数
+	 */
+	public synchronized int getDeduplicated() {
+		return deduplicated;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * 批量加载的结果，未完成时取值会先触发加载</br>
+	 * 不是{@link CompletableFuture}，因为在其上组合的阶段不会触发加载，会一直等待
+	 */
+	public static class Result {
+
+		private final BatchLoader loader;
+
+		private final String key;
+
+		/**
+		 * string的结果为null
+		 */
+		private final String field;
+
+		private final CompletableFuture<String> future = new CompletableFuture<String>();
+
+		Result(BatchLoader loader, String key, String field) {
+			this.loader = loader;
+			this.key = key;
+			this.field = field;
+		}
+
+		private void load() {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				loader.dispatch();
+			} catch (RuntimeException e) {
+				// 这一批的结果已经以异常完成，由get/join抛出
+				if (!future.isDone()) {
+					throw e;
+				}
+			}
+		}
+
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		/**
+		 * @see CompletableFuture#get()
+		 */
+		public String get() throws InterruptedException, ExecutionException {
+			load();
+			return future.get();
+		}
+
+		/**
+		 * @see CompletableFuture#get(long, TimeUnit)
+		 */
+		public String get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			load();
+			return future.get(timeout, unit);
+		}
+
+		/**
+		 * @see CompletableFuture#join()
+		 */
+		public String join() {
+			load();
+			return future.join();
+		}
+
+		/**
+		 * 先触发加载，再返回一个已完成的future，用于thenApply、allOf等组合
+		 */
+		public CompletableFuture<String> toCompletableFuture() {
+			load();
+			return future.thenApply(Function.<String> identity());
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.wuzl.util.redis;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import redis.clients.jedis.BitOP;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * 基于bitmap的活跃用户计数(DAU等)</br>
+ * <ul>
+ * <li>每个周期(如某一天)一个bitmap，key为prefix:周期，用户id作为bit的offset</li>
+ * <li>用户id连续时一千万用户每天只占约1.2M内存，计数精确</li>
+ * <li>多日活跃/留存通过BITOP OR/AND后BITCOUNT计算，一次往返</li>
+ * <li>多个周期的批量标记和批量计数各只需一次往返</li>
+ * </ul>
+ * 用户id必须是非负整数且小于2^32
+ *
+ * @author ziliang.wu
+ */
+public class BitmapCounter {
+
+	private static final long MAX_OFFSET = (1L << 32) - 1;
+
+	/**
+	 * 合并计数用的临时key的过期时间，秒，连接中断没有删除时由过期清理
+	 */
+	private static final int TEMP_KEY_SECONDS = 60;
+
+	private final JedisUtil jedisUtil;
+
+	private final String prefix;
+
+	/**
+	 * @param prefix
+	 *            key前缀，例如dau
+	 */
+	public BitmapCounter(String prefix) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.prefix = prefix;
+	}
+
+	/**
+	 * 标记用户在某周期活跃
+	 *
+	 * @param period
+	 *            周期，例如20161019
+	 * @param id
+	 *            用户id
+	 * @return 之前是否已经活跃
+	 */
+	public boolean mark(String period, long id) {
+		long offset = offset(id);
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.setbit(key(period), offset, true);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 通过一个pipeline标记多个周期的多个用户
+	 *
+	 * @param periodIds
+	 *            周期与活跃的用户id
+	 */
+	public void mark(Map<String, ? extends Collection<Long>> periodIds) {
+		if (periodIds.isEmpty()) {
+			return;
+		}
+		// 借用连接前检查，避免pipeline写了一半时抛出
+		for (Collection<Long> ids : periodIds.values()) {
+			for (Long id : ids) {
+				offset(id);
+			}
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			for (Map.Entry<String, ? extends Collection<Long>> entry : periodIds.entrySet()) {
+				String key = key(entry.getKey());
+				for (Long id : entry.getValue()) {
+					pipeline.setbit(key, offset(id), true);
+				}
+			}
+			pipeline.sync();
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 用户在某周期是否活跃
+	 */
+	public boolean isActive(String period, long id) {
+		long offset = offset(id);
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.getbit(key(period), offset);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 某周期的活跃用户数
+	 */
+	public long count(String period) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.bitcount(key(period));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 通过一个pipeline分别统计多个周期的活跃用户数
+	 *
+	 * @param periods
+	 * @return 每个周期的活跃用户数
+	 */
+	public Map<String, Long> countEach(Collection<String> periods) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		if (periods.isEmpty()) {
+			return result;
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			Map<String, Response<Long>> responses = new LinkedHashMap<String, Response<Long>>();
+			for (String period : periods) {
+				responses.put(period, pipeline.bitcount(key(period)));
+			}
+			pipeline.sync();
+			for (Map.Entry<String, Response<Long>> entry : responses.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().get());
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 任一周期活跃的用户数，例如周活跃
+	 */
+	public long countAny(String... periods) {
+		return countCombined(BitOP.OR, periods);
+	}
+
+	/**
+	 * 所有周期都活跃的用户数，例如次日留存
+	 */
+	public long countAll(String... periods) {
+		return countCombined(BitOP.AND, periods);
+	}
+
+	/**
+	 * 把多个周期按op合并后保存为新的周期，例如把每日合并成每周
+	 *
+	 * @param op
+	 * @param destPeriod
+	 * @param periods
+	 * @return 合并后的活跃用户数
+	 */
+	public long store(BitOP op, String destPeriod, String... periods) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			pipeline.bitop(op, key(destPeriod), keys(periods));
+			Response<Long> count = pipeline.bitcount(key(destPeriod));
+			pipeline.sync();
+			return count.get();
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private long countCombined(BitOP op, String... periods) {
+		if (periods.length == 1) {
+			return count(periods[0]);
+		}
+		// 临时key，计数后立即删除；与BITOP在同一个事务中设置过期时间，连接中断时也不会遗留
+		String temp = prefix + ":tmp:" + UUID.randomUUID().toString();
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			pipeline.multi();
+			pipeline.bitop(op, temp, keys(periods));
+			pipeline.expire(temp, TEMP_KEY_SECONDS);
+			Response<Long> count = pipeline.bitcount(temp);
+			pipeline.del(temp);
+			pipeline.exec();
+			pipeline.sync();
+			return count.get();
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private String key(String period) {
+		return prefix + ":" + period;
+	}
+
+	private String[] keys(String... periods) {
+		String[] keys = new String[periods.length];
+		for (int i = 0; i < periods.length; i++) {
+			keys[i] = key(periods[i]);
+		}
+		return keys;
+	}
+
+	private static long offset(long id) {
+		if (id < 0 || id > MAX_OFFSET) {
+			throw new IllegalArgumentException("bitmap offset out of range:" + id);
+		}
+		return id;
+	}
+}
@@ -0,0 +1,434 @@
+package org.wuzl.util.redis;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 基于redis bitmap的布隆过滤器</br>
+ * <ul>
+ * <li>按预期插入量和误判率计算bit数m和hash个数k，bit保存在redis的String中(SETBIT/GETBIT)</li>
+ * <li>k个bit位置在本地用murmur3计算，一批元素的全部探测通过一个pipeline发送</li>
+ * <li>可扩展模式下，当前层插入量达到容量后自动新增一层，新层容量按growth倍增长、误判率按tightening倍收紧，查询检查所有层</li>
+ * </ul>
+ * 单层bit数不能超过2^32(redis String最大512M)
+ *
+ * @author ziliang.wu
+ */
+public class BloomFilter {
+
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private static final long MAX_BITS = 1L << 32;
+
+	/**
+	 * KEYS[1]层数 ARGV[1]期望的当前层数，只有层数未被其他节点修改时才加一
+	 */
+	private static final RedisScript GROW_SCRIPT = new RedisScript(
+			"local layers = tonumber(redis.call('GET', KEYS[1]) or '1') "
+					+ "if layers == tonumber(ARGV[1]) then redis.call('SET', KEYS[1], layers + 1) return layers + 1 end "
+					+ "return layers");
+
+	private final JedisUtil jedisUtil;
+
+	private final String key;
+
+	private final String layersKey;
+
+	private final long expectedInsertions;
+
+	private final double fpp;
+
+	private final boolean scalable;
+
+	/**
+	 * 可扩展模式下每层容量的增长倍数
+	 */
+	private int growth = 2;
+	/**
+	 * 可扩展模式下每层误判率的收紧比例
+	 */
+	private double tightening = 0.5;
+
+	private volatile List<Layer> layers;
+
+	public BloomFilter(String key, long expectedInsertions, double fpp) {
+		this(key, expectedInsertions, fpp, false);
+	}
+
+	/**
+	 * @param key
+	 *            过滤器的key，每层的bit保存在key:层号
+	 * @param expectedInsertions
+	 *            预期插入量(可扩展模式下为第一层的容量)
+	 * @param fpp
+	 *            误判率
+	 * @param scalable
+	 *            是否可扩展
+	 */
+	public BloomFilter(String key, long expectedInsertions, double fpp, boolean scalable) {
+		if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+			throw new IllegalArgumentException(
+					"illegal bloom filter config,expectedInsertions:" + expectedInsertions + ",fpp:" + fpp);
+		}
+		this.jedisUtil = JedisUtil.getInstance();
+		this.key = key;
+		this.layersKey = key + ":layers";
+		this.expectedInsertions = expectedInsertions;
+		this.fpp = fpp;
+		this.scalable = scalable;
+		this.layers = Collections.singletonList(layer(0));
+	}
+
+	/**
+	 * 添加元素
+	 *
+	 * @return 元素之前一定不存在时返回true
+	 */
+	public boolean add(String item) {
+		return add(Collections.singletonList(item)).get(0);
+	}
+
+	/**
+	 * 批量添加元素
+	 *
+	 * @param items
+	 * @return 每个元素之前是否一定不存在
+	 */
+	public List<Boolean> add(List<String> items) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			List<Layer> current = refreshLayers(jedis);
+			List<long[]> positions = hash(items);
+			boolean[] exists = new boolean[items.size()];
+			// 先检查较早的层，元素已在旧层中时不再写入当前层
+			if (current.size() > 1) {
+				exists = probe(jedis, positions, current.subList(0, current.size() - 1));
+			}
+			Layer last = current.get(current.size() - 1);
+			Pipeline pipeline = jedis.pipelined();
+			List<List<Response<Boolean>>> responses = new ArrayList<List<Response<Boolean>>>(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				if (exists[i]) {
+					responses.add(null);
+					continue;
+				}
+				long[] hash = positions.get(i);
+				List<Response<Boolean>> bits = new ArrayList<Response<Boolean>>(last.hashes);
+				for (int j = 0; j < last.hashes; j++) {
+					bits.add(pipeline.setbit(last.key, last.position(hash, j), true));
+				}
+				responses.add(bits);
+			}
+			pipeline.sync();
+
+			List<Boolean> added = new ArrayList<Boolean>(items.size());
+			long count = 0;
+			for (List<Response<Boolean>> bits : responses) {
+				boolean isNew = false;
+				if (bits != null) {
+					for (Response<Boolean> bit : bits) {
+						if (!bit.get()) {
+							isNew = true;
+						}
+					}
+				}
+				if (isNew) {
+					count++;
+				}
+				added.add(isNew);
+			}
+			if (count > 0 && scalable) {
+				long inserted = jedis.incrBy(last.countKey, count);
+				if (inserted >= last.capacity) {
+					GROW_SCRIPT.eval(jedis, Arrays.asList(SafeEncoder.encode(layersKey)),
+							Arrays.asList(SafeEncoder.encode(String.valueOf(current.size()))));
+				}
+			}
+			return added;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 判断元素是否可能存在
+	 *
+	 * @return false表示一定不存在
+	 */
+	public boolean mightContain(String item) {
+		return mightContain(Collections.singletonList(item)).get(0);
+	}
+
+	/**
+	 * 批量判断元素是否可能存在，全部探测通过一个pipeline完成
+	 */
+	public List<Boolean> mightContain(List<String> items) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			List<Layer> current = refreshLayers(jedis);
+			boolean[] exists = probe(jedis, hash(items), current);
+			List<Boolean> result = new ArrayList<Boolean>(items.size());
+			for (boolean e : exists) {
+				result.add(e);
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 删除过滤器的全部数据
+	 */
+	public void delete() {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			List<Layer> current = refreshLayers(jedis);
+			List<String> keys = new ArrayList<String>(current.size() * 2 + 1);
+			keys.add(layersKey);
+			for (Layer layer : current) {
+				keys.add(layer.key);
+				keys.add(layer.countKey);
+			}
+			jedis.del(keys.toArray(new String[keys.size()]));
+			layers = Collections.singletonList(layer(0));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private boolean[] probe(Jedis jedis, List<long[]> positions, List<Layer> probeLayers) {
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<Boolean>> responses = new ArrayList<Response<Boolean>>();
+		for (long[] hash : positions) {
+			for (Layer layer : probeLayers) {
+				for (int j = 0; j < layer.hashes; j++) {
+					responses.add(pipeline.getbit(layer.key, layer.position(hash, j)));
+				}
+			}
+		}
+		pipeline.sync();
+		boolean[] exists = new boolean[positions.size()];
+		int index = 0;
+		for (int i = 0; i < positions.size(); i++) {
+			for (Layer layer : probeLayers) {
+				boolean all = true;
+				for (int j = 0; j < layer.hashes; j++) {
+					if (!responses.get(index++).get()) {
+						all = false;
+					}
+				}
+				if (all) {
+					exists[i] = true;
+				}
+			}
+		}
+		return exists;
+	}
+
+	private static List<long[]> hash(List<String> items) {
+		List<long[]> hashes = new ArrayList<long[]>(items.size());
+		for (String item : items) {
+			hashes.add(murmur3(item.getBytes(UTF8)));
+		}
+		return hashes;
+	}
+
+	private List<Layer> refreshLayers(Jedis jedis) {
+		if (!scalable) {
+			return layers;
+		}
+		String value = jedis.get(layersKey);
+		int count = value == null ? 1 : Integer.parseInt(value);
+		List<Layer> current = layers;
+		if (current.size() != count) {
+			List<Layer> list = new ArrayList<Layer>(count);
+			for (int i = 0; i < count; i++) {
+				list.add(i < current.size() ? current.get(i) : layer(i));
+			}
+			current = Collections.unmodifiableList(list);
+			layers = current;
+		}
+		return current;
+	}
+
+	private Layer layer(int index) {
+		long capacity = (long) (expectedInsertions * Math.pow(growth, index));
+		double layerFpp = fpp * Math.pow(tightening, index);
+		long bits = optimalBits(capacity, layerFpp);
+		if (bits > MAX_BITS) {
+			throw new IllegalArgumentException("bloom filter layer too large,bits:" + bits);
+		}
+		return new Layer(key + ":" + index, key + ":count:" + index, capacity, bits,
+				optimalHashes(capacity, bits));
+	}
+
+	/**
+	 * m = -n*ln(p)/(ln2)^2
+	 */
+	static long optimalBits(long n, double p) {
+		return (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+	}
+
+	/**
+	 * k = m/n*ln2
+	 */
+	static int optimalHashes(long n, long m) {
+		return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+	}
+
+	/**
+	 * murmur3 x64 128位hash，seed为0
+	 */
+	@SuppressWarnings("fallthrough")
+	static long[] murmur3(byte[] data) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		long h1 = 0;
+		long h2 = 0;
+		int blocks = data.length / 16;
+		for (int i = 0; i < blocks; i++) {
+			long k1 = getLong(data, i * 16);
+			long k2 = getLong(data, i * 16 + 8);
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks * 16;
+		switch (data.length & 15) {
+		case 15:
+			k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+			// fall through
+		case 14:
+			k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+			// fall through
+		case 13:
+			k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+			// fall through
+		case 12:
+			k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+			// fall through
+		case 11:
+			k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+			// fall through
+		case 10:
+			k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+			// fall through
+		case 9:
+			k2 ^= data[tail + 8] & 0xff;
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			// fall through
+		case 8:
+			k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+			// fall through
+		case 7:
+			k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+			// fall through
+		case 6:
+			k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+			// fall through
+		case 5:
+			k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+			// fall through
+		case 4:
+			k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+			// fall through
+		case 3:
+			k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+			// fall through
+		case 2:
+			k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+			// fall through
+		case 1:
+			k1 ^= data[tail] & 0xff;
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+		h1 ^= data.length;
+		h2 ^= data.length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		return (data[offset] & 0xffL) | (data[offset + 1] & 0xffL) << 8 | (data[offset + 2] & 0xffL) << 16
+				| (data[offset + 3] & 0xffL) << 24 | (data[offset + 4] & 0xffL) << 32
+				| (data[offset + 5] & 0xffL) << 40 | (data[offset + 6] & 0xffL) << 48
+				| (data[offset + 7] & 0xffL) << 56;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	public void setGrowth(int growth) {
+		this.growth = growth;
+	}
+
+	public void setTightening(double tightening) {
+		this.tightening = tightening;
+	}
+
+	/**
+	 * 过滤器的一层
+	 */
+	static class Layer {
+		final String key;
+		final String countKey;
+		final long capacity;
+		final long bits;
+		final int hashes;
+
+		Layer(String key, String countKey, long capacity, long bits, int hashes) {
+			this.key = key;
+			this.countKey = countKey;
+			this.capacity = capacity;
+			this.bits = bits;
+			this.hashes = hashes;
+		}
+
+		/**
+		 * 第i个bit位置，h1 + i*h2 (Kirsch-Mitzenmacher)
+		 */
+		long position(long[] hash, int i) {
+			long combined = hash[0] + i * hash[1];
+			return (combined & Long.MAX_VALUE) % bits;
+		}
+	}
+}
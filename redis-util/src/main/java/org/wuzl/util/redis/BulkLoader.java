@@ -0,0 +1,536 @@
+package org.wuzl.util.redis;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+
+import redis.clients.jedis.Protocol;
+
+/**
+ * redis批量导入工具</br>
+ * <ul>
+ * <li>通过NIO FileChannel按块读取文件，每行一条redis命令</li>
+ * <li>LINE格式：参数之间用分隔符(默认\t)分隔，例:SET\tkey1\tvalue1，解析直接在字节上完成</li>
+ * <li>JSON格式：每行一个json数组，例:["HMSET","user:1","name","wuzl"]</li>
+ * <li>命令直接编码为RESP写入复用的缓冲区，通过一个socket发送；单独的线程读取响应，在途命令数有上限</li>
+ * <li>按固定条数输出进度和吞吐量</li>
+ * </ul>
+ * 空行和#开头的行会被忽略
+ *
+ * @author ziliang.wu
+ */
+public class BulkLoader {
+
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	/**
+	 * 输入文件格式
+	 */
+	public enum Format {
+		LINE, JSON
+	}
+
+	private final String host;
+	private final int port;
+	private final String password;
+	private final int database;
+
+	/**
+	 * 已发送但未收到响应的最大命令数
+	 */
+	private int maxInFlight = 10000;
+	/**
+	 * 文件读取缓冲区大小
+	 */
+	private int readBufferSize = 1024 * 1024;
+	/**
+	 * RESP输出缓冲区大小
+	 */
+	private int writeBufferSize = 256 * 1024;
+	/**
+	 * LINE格式的参数分隔符
+	 */
+	private byte delimiter = '\t';
+	/**
+	 * 每多少条命令输出一次进度
+	 */
+	private long progressInterval = 100000;
+	/**
+	 * socket超时时间，毫秒
+	 */
+	private int timeout = Protocol.DEFAULT_TIMEOUT;
+
+	public BulkLoader(String host, int port, String password, int database) {
+		this.host = host;
+		this.port = port;
+		this.password = password;
+		this.database = database;
+	}
+
+	/**
+	 * 使用redis.properties中的连接信息
+	 */
+	public static BulkLoader fromProperties() {
+		Properties prop = JedisUtil.loadRedisProperties();
+		if (prop == null) {
+			throw new IllegalArgumentException("[redis.properties] is not found!");
+		}
+		String dataBaseStr = prop.getProperty("redis.pool.database");
+		int dataBase = dataBaseStr == null || dataBaseStr.length() == 0 ? Protocol.DEFAULT_DATABASE
+				: Integer.valueOf(dataBaseStr);
+		return new BulkLoader(prop.getProperty("redis.pool.host"), Integer.valueOf(prop.getProperty("redis.pool.port")),
+				prop.getProperty("redis.pool.password"), dataBase);
+	}
+
+	/**
+	 * 导入文件
+	 *
+	 * @param file
+	 * @param format
+	 *            文件格式
+	 * @return 导入结果
+	 * @throws IOException
+	 */
+	public Result load(File file, Format format) throws IOException {
+		long start = System.currentTimeMillis();
+		Socket socket = new Socket();
+		FileInputStream fis = null;
+		ReplyReader replyReader = null;
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			RespWriter writer = new RespWriter(socket.getOutputStream(), writeBufferSize);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+			handshake(writer, in);
+
+			Semaphore inFlight = new Semaphore(maxInFlight);
+			replyReader = new ReplyReader(socket, in, inFlight, maxInFlight);
+			Thread readerThread = new Thread(replyReader, "redis-bulk-loader-reply");
+			readerThread.setDaemon(true);
+			readerThread.start();
+
+			fis = new FileInputStream(file);
+			long commands;
+			try {
+				commands = send(fis.getChannel(), format, writer, inFlight, replyReader, start);
+				writer.flush();
+			} catch (IOException e) {
+				// 响应线程失败时会关闭socket，写入随之失败，抛出原始的异常
+				replyReader.checkFailure();
+				throw e;
+			}
+			// 拿回全部许可说明所有响应都已读取
+			inFlight.acquireUninterruptibly(maxInFlight);
+			replyReader.checkFailure();
+
+			Result result = new Result(commands, replyReader.errors.get(), System.currentTimeMillis() - start);
+			logger.info("bulk load finished,file:{},{}", file, result);
+			return result;
+		} finally {
+			if (fis != null) {
+				fis.close();
+			}
+			if (replyReader != null) {
+				replyReader.stopped = true;
+			}
+			socket.close();
+		}
+	}
+
+	private void handshake(RespWriter writer, InputStream in) throws IOException {
+		if (password != null && password.length() > 0) {
+			writer.beginCommand(2);
+			writer.arg("AUTH");
+			writer.arg(password);
+			writer.flush();
+			checkReply(in, "AUTH");
+		}
+		if (database != Protocol.DEFAULT_DATABASE) {
+			writer.beginCommand(2);
+			writer.arg("SELECT");
+			writer.arg(String.valueOf(database));
+			writer.flush();
+			checkReply(in, "SELECT");
+		}
+	}
+
+	private void checkReply(InputStream in, String command) throws IOException {
+		String error = readReply(in);
+		if (error != null) {
+			throw new IOException(command + " failed:" + error);
+		}
+	}
+
+	private long send(FileChannel channel, Format format, RespWriter writer, Semaphore inFlight,
+			ReplyReader replyReader, long start) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+		long commands = 0;
+		boolean eof = false;
+		while (!eof) {
+			// 读取文件前先发出已编码的命令，文件读取较慢时这些命令的响应不会被误判为超时
+			writer.flush();
+			if (channel.read(buffer) < 0) {
+				eof = true;
+			}
+			buffer.flip();
+			byte[] array = buffer.array();
+			int lineStart = buffer.position();
+			int limit = buffer.limit();
+			for (int i = lineStart; i < limit; i++) {
+				if (array[i] == '\n') {
+					int sent = sendLine(array, lineStart, i, format, writer, inFlight, replyReader);
+					commands += sent;
+					lineStart = i + 1;
+					if (sent > 0 && commands % progressInterval == 0) {
+						progress(commands, replyReader.errors.get(), start);
+					}
+				}
+			}
+			if (eof && lineStart < limit) {
+				// 最后一行没有换行符
+				commands += sendLine(array, lineStart, limit, format, writer, inFlight, replyReader);
+				lineStart = limit;
+			}
+			buffer.position(lineStart);
+			buffer.compact();
+			if (!buffer.hasRemaining()) {
+				// 单行超过缓冲区，扩容
+				ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+		}
+		return commands;
+	}
+
+	private int sendLine(byte[] array, int from, int to, Format format, RespWriter writer, Semaphore inFlight,
+			ReplyReader replyReader) throws IOException {
+		if (to > from && array[to - 1] == '\r') {
+			to--;
+		}
+		if (from == to || array[from] == '#') {
+			return 0;
+		}
+		if (!inFlight.tryAcquire()) {
+			// 阻塞等待响应前必须先把缓冲区中的命令发出去
+			writer.flush();
+			replyReader.checkFailure();
+			inFlight.acquireUninterruptibly();
+		}
+		if (format == Format.LINE) {
+			int argc = 1;
+			for (int i = from; i < to; i++) {
+				if (array[i] == delimiter) {
+					argc++;
+				}
+			}
+			writer.beginCommand(argc);
+			int argStart = from;
+			for (int i = from; i <= to; i++) {
+				if (i == to || array[i] == delimiter) {
+					writer.arg(array, argStart, i - argStart);
+					argStart = i + 1;
+				}
+			}
+		} else {
+			JSONArray args = JSON.parseArray(new String(array, from, to - from, UTF8));
+			writer.beginCommand(args.size());
+			for (int i = 0; i < args.size(); i++) {
+				writer.arg(args.getString(i));
+			}
+		}
+		return 1;
+	}
+
+	private void progress(long commands, long errors, long start) {
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		logger.info("bulk load progress,commands:{},errors:{},elapsed:{}ms,throughput:{}/s", commands, errors, elapsed,
+				commands * 1000 / elapsed);
+	}
+
+	/**
+	 * 读取一个完整的响应
+	 *
+	 * @return 错误响应的内容，正常响应返回null
+	 */
+	static String readReply(InputStream in) throws IOException {
+		int type = in.read();
+		switch (type) {
+		case '+':
+		case ':':
+			readLine(in);
+			return null;
+		case '-':
+			return readLine(in);
+		case '$': {
+			long len = Long.parseLong(readLine(in));
+			if (len >= 0) {
+				skipFully(in, len + 2);
+			}
+			return null;
+		}
+		case '*': {
+			long count = Long.parseLong(readLine(in));
+			String error = null;
+			for (long i = 0; i < count; i++) {
+				String e = readReply(in);
+				if (error == null) {
+					error = e;
+				}
+			}
+			return error;
+		}
+		case -1:
+			throw new EOFException("redis connection closed");
+		default:
+			throw new IOException("unknown reply type:" + (char) type);
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\r') {
+			if (b == -1) {
+				throw new EOFException("redis connection closed");
+			}
+			sb.append((char) b);
+		}
+		in.read();
+		return sb.toString();
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("redis connection closed");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * 响应读取线程，每读取一个响应释放一个在途许可
+	 */
+	private static class ReplyReader implements Runnable {
+		private final Socket socket;
+		private final InputStream in;
+		private final Semaphore inFlight;
+		private final int maxInFlight;
+		private final AtomicLong errors = new AtomicLong();
+		private volatile IOException failure;
+		private volatile boolean stopped;
+
+		ReplyReader(Socket socket, InputStream in, Semaphore inFlight, int maxInFlight) {
+			this.socket = socket;
+			this.in = in;
+			this.inFlight = inFlight;
+			this.maxInFlight = maxInFlight;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!stopped) {
+					String error;
+					try {
+						error = readReply(in);
+					} catch (SocketTimeoutException e) {
+						// 没有等待响应的命令时只是在等待文件读取，继续等待；否则说明redis已停止响应
+						if (inFlight.availablePermits() >= maxInFlight) {
+							continue;
+						}
+						throw e;
+					}
+					if (error != null && errors.incrementAndGet() <= 10) {
+						logger.warn("bulk load command error:{}", error);
+					}
+					inFlight.release();
+				}
+			} catch (IOException e) {
+				if (!stopped) {
+					failure = e;
+					logger.error("bulk load read reply error", e);
+					// 唤醒等待许可的写线程，关闭socket唤醒阻塞在写入上的写线程
+					inFlight.release(Integer.MAX_VALUE / 2);
+					try {
+						socket.close();
+					} catch (IOException ce) {
+						logger.warn("close bulk load socket error", ce);
+					}
+				}
+			}
+		}
+
+		void checkFailure() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * RESP编码器，复用同一个缓冲区
+	 */
+	static class RespWriter {
+		private final OutputStream out;
+		private final byte[] buf;
+		private int pos;
+
+		RespWriter(OutputStream out, int size) {
+			this.out = out;
+			this.buf = new byte[size];
+		}
+
+		void beginCommand(int argc) throws IOException {
+			writeHeader('*', argc);
+		}
+
+		void arg(String arg) throws IOException {
+			byte[] bytes = arg.getBytes(UTF8);
+			arg(bytes, 0, bytes.length);
+		}
+
+		void arg(byte[] bytes, int off, int len) throws IOException {
+			writeHeader('$', len);
+			if (len > buf.length - pos) {
+				flush();
+				if (len > buf.length) {
+					out.write(bytes, off, len);
+					len = 0;
+				}
+			}
+			System.arraycopy(bytes, off, buf, pos, len);
+			pos += len;
+			ensure(2);
+			buf[pos++] = '\r';
+			buf[pos++] = '\n';
+		}
+
+		void flush() throws IOException {
+			if (pos > 0) {
+				out.write(buf, 0, pos);
+				pos = 0;
+			}
+			out.flush();
+		}
+
+		private void writeHeader(char type, int n) throws IOException {
+			// 类型 + 最多10位数字 + \r\n
+			ensure(13);
+			buf[pos++] = (byte) type;
+			if (n == 0) {
+				buf[pos++] = '0';
+			} else {
+				int digits = 0;
+				for (int v = n; v > 0; v /= 10) {
+					digits++;
+				}
+				for (int i = pos + digits - 1, v = n; v > 0; v /= 10, i--) {
+					buf[i] = (byte) ('0' + v % 10);
+				}
+				pos += digits;
+			}
+			buf[pos++] = '\r';
+			buf[pos++] = '\n';
+		}
+
+		private void ensure(int n) throws IOException {
+			if (buf.length - pos < n) {
+				out.write(buf, 0, pos);
+				pos = 0;
+			}
+		}
+	}
+
+	/**
+	 * 导入结果
+	 */
+	public static class Result {
+		private final long commands;
+		private final long errors;
+		private final long elapsedMillis;
+
+		Result(long commands, long errors, long elapsedMillis) {
+			this.commands = commands;
+			this.errors = errors;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public long getCommands() {
+			return commands;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return 每秒命令数
+		 */
+		public long getThroughput() {
+			return commands * 1000 / Math.max(elapsedMillis, 1);
+		}
+
+		@Override
+		public String toString() {
+			return "commands:" + commands + ",errors:" + errors + ",elapsed:" + elapsedMillis + "ms,throughput:"
+					+ getThroughput() + "/s";
+		}
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public void setReadBufferSize(int readBufferSize) {
+		this.readBufferSize = readBufferSize;
+	}
+
+	public void setWriteBufferSize(int writeBufferSize) {
+		this.writeBufferSize = writeBufferSize;
+	}
+
+	public void setDelimiter(byte delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+}
@@ -0,0 +1,354 @@
+package org.wuzl.util.redis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * redis熔断器</br>
+ * <ul>
+ * <li>按秒分桶统计最近windowSeconds秒内的调用数、失败数(连接异常、借用连接失败)和慢调用数(借出到归还超过slowCallMillis)</li>
+ * <li>调用数达到minimumCalls且失败率或慢调用率超过阈值时打开，打开期间直接拒绝，不再等待连接池和socket超时</li>
+ * <li>打开openMillis后进入半开状态，放行halfOpenProbes个探测调用，全部成功则关闭，任一失败则重新打开；
+ * 进入半开之前借出的连接归还时不作为探测结果</li>
+ * </ul>
+ * 通过{@link JedisUtil#setCircuitBreaker(CircuitBreaker)}启用，拒绝时抛出{@link CircuitOpenException}；
+ * {@link #call(Supplier, Supplier)}可以在打开或调用失败时返回降级结果
+ *
+ * @author ziliang.wu
+ */
+public class CircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	/**
+	 * 熔断器状态
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private int windowSeconds = 10;
+	/**
+	 * 窗口内至少有这么多次调用才计算比例
+	 */
+	private int minimumCalls = 20;
+	/**
+	 * 失败率阈值
+	 */
+	private double failureRateThreshold = 0.5;
+	/**
+	 * 超过该时间的调用为慢调用，毫秒
+	 */
+	private long slowCallMillis = 500;
+	/**
+	 * 慢调用率阈值
+	 */
+	private double slowCallRateThreshold = 0.8;
+	/**
+	 * 打开状态持续的时间，毫秒
+	 */
+	private long openMillis = 5000;
+	/**
+	 * 半开状态放行的探测调用数
+	 */
+	private int halfOpenProbes = 3;
+
+	private volatile State state = State.CLOSED;
+
+	private volatile long openedAt;
+
+	/**
+	 * 半开状态的序号，每次进入半开加一，用于区分探测调用
+	 */
+	private volatile int halfOpenEpoch;
+
+	private volatile Bucket[] buckets;
+
+	private final AtomicInteger probePermits = new AtomicInteger();
+
+	private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	public CircuitBreaker() {
+		this.buckets = newBuckets(windowSeconds);
+	}
+
+	/**
+	 * 调用前检查是否放行
+	 *
+	 * @throws CircuitOpenException
+	 *             熔断器打开或半开状态的探测名额已用完
+	 */
+	public void acquirePermission() {
+		State current = state;
+		if (current == State.CLOSED) {
+			return;
+		}
+		if (current == State.OPEN) {
+			if (System.currentTimeMillis() - openedAt < openMillis || !toHalfOpen()) {
+				reject();
+			}
+			return;
+		}
+		// 半开状态只放行有限的探测调用，探测长时间没有结果时重新放行
+		if (probePermits.getAndDecrement() <= 0
+				&& (System.currentTimeMillis() - openedAt < openMillis || !toHalfOpen())) {
+			reject();
+		}
+	}
+
+	/**
+	 * 在{@link #acquirePermission()}之后调用
+	 *
+	 * @return 半开状态下返回当前的序号，表示这是一次探测调用；否则返回-1
+	 */
+	int probeEpoch() {
+		return state == State.HALF_OPEN ? halfOpenEpoch : -1;
+	}
+
+	private void reject() {
+		rejected.incrementAndGet();
+		throw new CircuitOpenException("redis circuit breaker is " + state);
+	}
+
+	/**
+	 * 记录一次成功的调用
+	 *
+	 * @param elapsedMillis
+	 *            调用耗时，小于0时不计算慢调用
+	 */
+	public void onSuccess(long elapsedMillis) {
+		boolean slow = elapsedMillis >= slowCallMillis;
+		if (state == State.HALF_OPEN) {
+			if (slow) {
+				toOpen("slow probe " + elapsedMillis + "ms");
+			} else if (probeSuccesses.incrementAndGet() >= halfOpenProbes) {
+				toClosed();
+			}
+			return;
+		}
+		bucket().record(false, slow);
+		if (slow) {
+			evaluate();
+		}
+	}
+
+	/**
+	 * 记录一次成功的调用，半开状态下只记录本次半开的探测调用
+	 *
+	 * @param probeEpoch
+	 *            调用开始时{@link #probeEpoch()}的返回值
+	 */
+	void onSuccess(long elapsedMillis, int probeEpoch) {
+		if (state == State.HALF_OPEN && probeEpoch != halfOpenEpoch) {
+			return;
+		}
+		onSuccess(elapsedMillis);
+	}
+
+	/**
+	 * 记录一次失败的调用，半开状态下只记录本次半开的探测调用
+	 *
+	 * @param probeEpoch
+	 *            调用开始时{@link #probeEpoch()}的返回值
+	 */
+	void onFailure(int probeEpoch) {
+		if (state == State.HALF_OPEN && probeEpoch != halfOpenEpoch) {
+			return;
+		}
+		onFailure();
+	}
+
+	/**
+	 * 记录一次失败的调用
+	 */
+	public void onFailure() {
+		if (state == State.HALF_OPEN) {
+			toOpen("probe failed");
+			return;
+		}
+		bucket().record(true, false);
+		evaluate();
+	}
+
+	/**
+	 * 执行调用，熔断器打开或发生连接异常时返回降级结果
+	 *
+	 * @param action
+	 *            通过JedisUtil访问redis的操作
+	 * @param fallback
+	 *            降级结果，例如本地缓存或默认值
+	 */
+	public <T> T call(Supplier<T> action, Supplier<T> fallback) {
+		try {
+			return action.get();
+		} catch (JedisConnectionException e) {
+			if (!(e instanceof CircuitOpenException)) {
+				logger.warn("redis call failed,use fallback", e);
+			}
+			return fallback.get();
+		}
+	}
+
+	private void evaluate() {
+		if (state != State.CLOSED) {
+			return;
+		}
+		long now = System.currentTimeMillis() / 1000;
+		long calls = 0;
+		long failures = 0;
+		long slows = 0;
+		for (Bucket bucket : buckets) {
+			synchronized (bucket) {
+				if (now - bucket.second < buckets.length) {
+					calls += bucket.calls;
+					failures += bucket.failures;
+					slows += bucket.slows;
+				}
+			}
+		}
+		if (calls < minimumCalls) {
+			return;
+		}
+		double failureRate = (double) failures / calls;
+		double slowRate = (double) slows / calls;
+		if (failureRate >= failureRateThreshold || slowRate >= slowCallRateThreshold) {
+			toOpen("calls:" + calls + ",failureRate:" + String.format("%.2f", failureRate) + ",slowRate:"
+					+ String.format("%.2f", slowRate));
+		}
+	}
+
+	private synchronized void toOpen(String reason) {
+		if (state == State.OPEN) {
+			return;
+		}
+		logger.warn("redis circuit breaker {} -> OPEN,{}", state, reason);
+		openedAt = System.currentTimeMillis();
+		state = State.OPEN;
+	}
+
+	private synchronized boolean toHalfOpen() {
+		if (state == State.CLOSED) {
+			return false;
+		}
+		if (System.currentTimeMillis() - openedAt < openMillis) {
+			// 其他线程已经切换
+			return state == State.HALF_OPEN && probePermits.getAndDecrement() > 0;
+		}
+		logger.info("redis circuit breaker {} -> HALF_OPEN", state);
+		openedAt = System.currentTimeMillis();
+		// 当前调用占用一个探测名额
+		probePermits.set(halfOpenProbes - 1);
+		probeSuccesses.set(0);
+		halfOpenEpoch++;
+		state = State.HALF_OPEN;
+		return true;
+	}
+
+	private synchronized void toClosed() {
+		if (state != State.HALF_OPEN) {
+			return;
+		}
+		logger.info("redis circuit breaker HALF_OPEN -> CLOSED");
+		buckets = newBuckets(windowSeconds);
+		state = State.CLOSED;
+	}
+
+	private Bucket bucket() {
+		long second = System.currentTimeMillis() / 1000;
+		Bucket[] current = buckets;
+		Bucket bucket = current[(int) (second % current.length)];
+		synchronized (bucket) {
+			if (bucket.second != second) {
+				bucket.second = second;
+				bucket.calls = 0;
+				bucket.failures = 0;
+				bucket.slows = 0;
+			}
+		}
+		return bucket;
+	}
+
+	private static Bucket[] newBuckets(int size) {
+		Bucket[] buckets = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new Bucket();
+		}
+		return buckets;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return 状态的数值，用于监控：0关闭，1半开，2打开
+	 */
+	public int getStateValue() {
+		State current = state;
+		return current == State.CLOSED ? 0 : current == State.HALF_OPEN ? 1 : 2;
+	}
+
+	/**
+	 * @return 被拒绝的调用数
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public void setWindowSeconds(int windowSeconds) {
+		this.windowSeconds = windowSeconds;
+		this.buckets = newBuckets(windowSeconds);
+	}
+
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public void setFailureRateThreshold(double failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public void setSlowCallMillis(long slowCallMillis) {
+		this.slowCallMillis = slowCallMillis;
+	}
+
+	public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public void setHalfOpenProbes(int halfOpenProbes) {
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	/**
+	 * 一秒内的统计
+	 */
+	private static class Bucket {
+		long second;
+		long calls;
+		long failures;
+		long slows;
+
+		synchronized void record(boolean failure, boolean slow) {
+			calls++;
+			if (failure) {
+				failures++;
+			}
+			if (slow) {
+				slows++;
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package org.wuzl.util.redis;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * {@link CircuitBreaker}处于打开状态，调用被直接拒绝
+ *
+ * @author ziliang.wu
+ */
+public class CircuitOpenException extends JedisConnectionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
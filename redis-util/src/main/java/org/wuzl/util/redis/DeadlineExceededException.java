@@ -0,0 +1,28 @@
+package org.wuzl.util.redis;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * 在{@link JedisUtil#withDeadline(long, JedisUtil.SessionCallback)}的时间预算内没有完成</br>
+ * 包括借用连接超时、读取响应超时以及执行命令前预算已经耗尽
+ *
+ * @author ziliang.wu
+ */
+public class DeadlineExceededException extends JedisConnectionException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String command;
+
+	public DeadlineExceededException(String command, String message, Throwable cause) {
+		super(message, cause);
+		this.command = command;
+	}
+
+	/**
+	 * @return 超时的操作，例如Hash.hget
+	 */
+	public String getCommand() {
+		return command;
+	}
+}
@@ -0,0 +1,291 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 基于SortSet的延迟任务队列</br>
+ * <ul>
+ * <li>member为任务内容，score为到期时间(毫秒时间戳)</li>
+ * <li>到期任务通过lua脚本一次取出最多N条并删除，多节点之间不会重复领取，一次往返</li>
+ * <li>脚本同时返回剩余任务中最早的到期时间，轮询间隔据此自适应：有满批任务时立即再取，否则睡到下一个到期时间(有上下限)</li>
+ * <li>任务交给处理线程池执行，线程池满时不再领取新任务</li>
+ * </ul>
+ * 任务被领取后即从redis删除，处理失败只记录日志(至多一次)
+ *
+ * @author ziliang.wu
+ */
+public class DelayQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(DelayQueue.class);
+
+	/**
+	 * KEYS[1]队列 ARGV[1]当前时间 ARGV[2]最多条数，返回{到期任务, 下一个到期时间}
+	 */
+	private static final RedisScript POLL_SCRIPT = new RedisScript(
+			"local items = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) "
+					+ "if #items > 0 then redis.call('ZREM', KEYS[1], unpack(items)) end "
+					+ "local nxt = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') "
+					+ "return {items, nxt[2] or ''}");
+
+	/**
+	 * 任务处理器
+	 */
+	public interface Handler {
+		void handle(String member) throws Exception;
+	}
+
+	private final JedisUtil jedisUtil;
+
+	private final String key;
+
+	private final Handler handler;
+
+	/**
+	 * 一次最多领取的任务数
+	 */
+	private int batchSize = 100;
+	/**
+	 * 处理线程数
+	 */
+	private int handlerThreads = 8;
+	/**
+	 * 最短轮询间隔，毫秒
+	 */
+	private long minPollInterval = 10;
+	/**
+	 * 最长轮询间隔，毫秒，也是发现其他节点新增的更早任务的最大延迟
+	 */
+	private long maxPollInterval = 1000;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition wakeUp = lock.newCondition();
+
+	private volatile boolean running;
+	private ExecutorService handlerPool;
+	private Semaphore capacity;
+	private Thread dispatcher;
+
+	public DelayQueue(String key, Handler handler) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.key = key;
+		this.handler = handler;
+	}
+
+	/**
+	 * 添加延迟任务
+	 *
+	 * @param member
+	 *            任务内容
+	 * @param dueTime
+	 *            到期时间，毫秒时间戳
+	 */
+	public void schedule(String member, long dueTime) {
+		JedisUtil.SORTSET.zadd(key, dueTime, member);
+		wakeUp();
+	}
+
+	/**
+	 * 批量添加延迟任务
+	 *
+	 * @param memberDueTimes
+	 *            任务内容与到期时间的对应关系
+	 */
+	public void schedule(Map<String, Double> memberDueTimes) {
+		if (memberDueTimes.isEmpty()) {
+			return;
+		}
+		JedisUtil.SORTSET.zadd(key, memberDueTimes);
+		wakeUp();
+	}
+
+	/**
+	 * 取消任务
+	 *
+	 * @return 任务存在且未被领取时返回true
+	 */
+	public boolean cancel(String member) {
+		return JedisUtil.SORTSET.zrem(key, member) > 0;
+	}
+
+	/**
+	 * 领取最多max条已到期的任务，领取后任务从队列中删除
+	 *
+	 * @param max
+	 * @return 到期任务
+	 */
+	public List<String> poll(int max) {
+		return poll(max, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> poll(int max, long[] nextDue) {
+		Jedis jedis = jedisUtil.getJedis();
+		List<Object> result;
+		try {
+			List<byte[]> args = Arrays.asList(SafeEncoder.encode(String.valueOf(System.currentTimeMillis())),
+					SafeEncoder.encode(String.valueOf(max)));
+			result = (List<Object>) POLL_SCRIPT.eval(jedis, Arrays.asList(SafeEncoder.encode(key)), args);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+		List<byte[]> raw = (List<byte[]>) result.get(0);
+		List<String> items = new ArrayList<String>(raw.size());
+		for (byte[] item : raw) {
+			items.add(SafeEncoder.encode(item));
+		}
+		if (nextDue != null) {
+			String next = SafeEncoder.encode((byte[]) result.get(1));
+			nextDue[0] = next.length() == 0 ? Long.MAX_VALUE : (long) Double.parseDouble(next);
+		}
+		return items;
+	}
+
+	/**
+	 * 启动分发线程和处理线程池
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		capacity = new Semaphore(handlerThreads * 2);
+		final AtomicInteger index = new AtomicInteger();
+		handlerPool = Executors.newFixedThreadPool(handlerThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-delay-queue-handler-" + index.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		}, "redis-delay-queue-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	public synchronized void shutdown() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		dispatcher.interrupt();
+		handlerPool.shutdown();
+	}
+
+	private void dispatchLoop() {
+		long[] nextDue = new long[1];
+		while (running) {
+			long sleep = maxPollInterval;
+			int max = 0;
+			try {
+				capacity.acquire();
+				int permits = 1 + capacity.drainPermits();
+				max = Math.min(permits, batchSize);
+				capacity.release(permits - max);
+				List<String> items = poll(max, nextDue);
+				capacity.release(max - items.size());
+				boolean full = items.size() == max;
+				// 剩余许可由任务执行完后释放
+				max = 0;
+				for (String item : items) {
+					handlerPool.execute(new Task(item));
+				}
+				if (full) {
+					// 可能还有到期任务，立即再取
+					continue;
+				}
+				sleep = Math.max(minPollInterval, Math.min(maxPollInterval, nextDue[0] - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				capacity.release(max);
+				logger.error("poll delay queue error,key:" + key, e);
+			}
+			await(sleep);
+		}
+	}
+
+	private void await(long millis) {
+		lock.lock();
+		try {
+			wakeUp.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 本节点新增任务后唤醒分发线程，以便及时处理比当前等待时间更早到期的任务
+	 */
+	private void wakeUp() {
+		if (!running) {
+			return;
+		}
+		lock.lock();
+		try {
+			wakeUp.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Task implements Runnable {
+		private final String member;
+
+		Task(String member) {
+			this.member = member;
+		}
+
+		@Override
+		public void run() {
+			try {
+				handler.handle(member);
+			} catch (Exception e) {
+				logger.error("handle delay task error,key:" + key + ",member:" + member, e);
+			} finally {
+				capacity.release();
+			}
+		}
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setHandlerThreads(int handlerThreads) {
+		this.handlerThreads = handlerThreads;
+	}
+
+	public void setMinPollInterval(long minPollInterval) {
+		this.minPollInterval = minPollInterval;
+	}
+
+	public void setMaxPollInterval(long maxPollInterval) {
+		this.maxPollInterval = maxPollInterval;
+	}
+}
@@ -0,0 +1,365 @@
+package org.wuzl.util.redis;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSON;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * POJO与hash之间的映射</br>
+ * <ul>
+ * <li>对象的每个字段对应hash的一个field，字符串、基本类型及其包装类、枚举、BigDecimal直接转为字符串，其他类型使用json</li>
+ * <li>字段的反射信息按类缓存，只解析一次</li>
+ * <li>可以只读取部分字段(投影)，也可以通过{@link Tracked}只写入修改过的字段</li>
+ * </ul>
+ * static和transient字段不映射；值为null的字段在hash中不存在
+ *
+ * @author ziliang.wu
+ */
+public class HashMapper<T> {
+
+	private static final ConcurrentHashMap<Class<?>, Map<String, FieldMapping>> MAPPINGS = new ConcurrentHashMap<Class<?>, Map<String, FieldMapping>>();
+
+	private final JedisUtil jedisUtil;
+
+	private final Constructor<T> constructor;
+
+	private final Map<String, FieldMapping> fields;
+
+	public HashMapper(Class<T> clazz) {
+		this.jedisUtil = JedisUtil.getInstance();
+		try {
+			this.constructor = clazz.getDeclaredConstructor();
+			this.constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(clazz.getName() + " has no default constructor", e);
+		}
+		this.fields = mappings(clazz);
+	}
+
+	/**
+	 * 写入整个对象，值为null的字段从hash中删除
+	 *
+	 * @param key
+	 * @param obj
+	 */
+	public void write(String key, T obj) {
+		write(key, toHash(obj));
+	}
+
+	/**
+	 * 读取整个对象
+	 *
+	 * @param key
+	 * @return hash不存在时返回null
+	 */
+	public T read(String key) {
+		Map<String, String> hash = JedisUtil.HASH.hgetAll(key);
+		if (hash == null || hash.isEmpty()) {
+			return null;
+		}
+		return fromHash(hash);
+	}
+
+	/**
+	 * 只读取指定字段(HMGET)，其他字段保持默认值
+	 *
+	 * @param key
+	 * @param fieldNames
+	 *            要读取的字段
+	 * @return 指定字段都不存在时返回null
+	 */
+	public T read(String key, String... fieldNames) {
+		Tracked<T> tracked = readTracked(key, fieldNames);
+		return tracked == null ? null : tracked.get();
+	}
+
+	/**
+	 * 读取对象并记录读取时的字段值，修改后通过{@link #writeDirty(String, Tracked)}只写入变化的字段</br>
+	 * 只读取部分字段时，未读取的字段需要通过{@link Tracked#markDirty(String...)}标记后才会写入
+	 *
+	 * @param key
+	 * @param fieldNames
+	 *            要读取的字段，为空时读取全部字段
+	 * @return hash不存在或指定字段都不存在时返回null
+	 */
+	public Tracked<T> readTracked(String key, String... fieldNames) {
+		String[] names = fieldNames.length == 0 ? fields.keySet().toArray(new String[fields.size()]) : fieldNames;
+		for (String name : names) {
+			mapping(name);
+		}
+		return toTracked(names, JedisUtil.HASH.hmget(key, names));
+	}
+
+	/**
+	 * 由HMGET的结果创建被跟踪的对象，快照只包含读取的字段
+	 */
+	Tracked<T> toTracked(String[] names, List<String> values) {
+		T obj = newInstance();
+		Map<String, String> snapshot = new LinkedHashMap<String, String>();
+		boolean exists = false;
+		for (int i = 0; i < names.length; i++) {
+			String value = values.get(i);
+			if (value != null) {
+				fields.get(names[i]).set(obj, value);
+				exists = true;
+			}
+		}
+		if (!exists) {
+			return null;
+		}
+		// 以解码后再编码的值作为快照，避免格式差异被误判为修改
+		for (String name : names) {
+			snapshot.put(name, fields.get(name).get(obj));
+		}
+		return new Tracked<T>(obj, snapshot);
+	}
+
+	/**
+	 * 跟踪一个新对象，当前所有字段都视为未修改
+	 */
+	public Tracked<T> track(T obj) {
+		return new Tracked<T>(obj, toHash(obj));
+	}
+
+	/**
+	 * 只写入读取后修改过的字段和通过{@link Tracked#markDirty(String...)}标记的字段，
+	 * 未读取也未标记的字段不会写入，避免投影读取时用默认值覆盖redis中的值
+	 *
+	 * @param key
+	 * @param tracked
+	 * @return 写入或删除的字段数
+	 */
+	public int writeDirty(String key, Tracked<T> tracked) {
+		Map<String, String> dirty = dirtyFields(tracked);
+		if (dirty.isEmpty()) {
+			return 0;
+		}
+		write(key, dirty);
+		tracked.snapshot.putAll(dirty);
+		tracked.marked.clear();
+		return dirty.size();
+	}
+
+	/**
+	 * 需要写入的字段，值为null的字段需要删除
+	 */
+	Map<String, String> dirtyFields(Tracked<T> tracked) {
+		Map<String, String> dirty = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> entry : tracked.snapshot.entrySet()) {
+			String name = entry.getKey();
+			String value = fields.get(name).get(tracked.obj);
+			String before = entry.getValue();
+			if (value == null ? before != null : !value.equals(before)) {
+				dirty.put(name, value);
+			}
+		}
+		for (String name : tracked.marked) {
+			if (!dirty.containsKey(name)) {
+				dirty.put(name, mapping(name).get(tracked.obj));
+			}
+		}
+		return dirty;
+	}
+
+	private void write(String key, Map<String, String> hash) {
+		Map<String, String> values = new HashMap<String, String>();
+		List<String> nulls = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : hash.entrySet()) {
+			if (entry.getValue() == null) {
+				nulls.add(entry.getKey());
+			} else {
+				values.put(entry.getKey(), entry.getValue());
+			}
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			if (!values.isEmpty()) {
+				pipeline.hmset(key, values);
+			}
+			if (!nulls.isEmpty()) {
+				pipeline.hdel(key, nulls.toArray(new String[nulls.size()]));
+			}
+			pipeline.sync();
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 对象转为hash，值为null的字段对应null
+	 */
+	Map<String, String> toHash(T obj) {
+		Map<String, String> hash = new LinkedHashMap<String, String>();
+		for (FieldMapping mapping : fields.values()) {
+			hash.put(mapping.name, mapping.get(obj));
+		}
+		return hash;
+	}
+
+	/**
+	 * hash转为对象
+	 */
+	T fromHash(Map<String, String> hash) {
+		T obj = newInstance();
+		for (Map.Entry<String, String> entry : hash.entrySet()) {
+			FieldMapping mapping = fields.get(entry.getKey());
+			if (mapping != null && entry.getValue() != null) {
+				mapping.set(obj, entry.getValue());
+			}
+		}
+		return obj;
+	}
+
+	private FieldMapping mapping(String name) {
+		FieldMapping mapping = fields.get(name);
+		if (mapping == null) {
+			throw new IllegalArgumentException("unknown field:" + name);
+		}
+		return mapping;
+	}
+
+	private T newInstance() {
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException("create instance error:" + constructor.getDeclaringClass().getName(), e);
+		}
+	}
+
+	private static Map<String, FieldMapping> mappings(Class<?> clazz) {
+		Map<String, FieldMapping> mappings = MAPPINGS.get(clazz);
+		if (mappings != null) {
+			return mappings;
+		}
+		mappings = new LinkedHashMap<String, FieldMapping>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+						|| mappings.containsKey(field.getName())) {
+					continue;
+				}
+				field.setAccessible(true);
+				mappings.put(field.getName(), new FieldMapping(field));
+			}
+		}
+		MAPPINGS.putIfAbsent(clazz, mappings);
+		return mappings;
+	}
+
+	/**
+	 * 被跟踪的对象，记录读取时的字段值
+	 */
+	public static class Tracked<T> {
+		private final T obj;
+		private final Map<String, String> snapshot;
+		/**
+		 * 显式标记需要写入的字段
+		 */
+		private final Set<String> marked = new LinkedHashSet<String>();
+
+		Tracked(T obj, Map<String, String> snapshot) {
+			this.obj = obj;
+			this.snapshot = snapshot;
+		}
+
+		public T get() {
+			return obj;
+		}
+
+		/**
+		 * 标记字段需要写入，用于给只读取部分字段时未读取的字段赋值
+		 */
+		public Tracked<T> markDirty(String... fieldNames) {
+			for (String name : fieldNames) {
+				marked.add(name);
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * 一个字段的映射，负责字段值与字符串之间的转换
+	 */
+	static class FieldMapping {
+		final String name;
+		final Field field;
+		final Class<?> type;
+
+		FieldMapping(Field field) {
+			this.name = field.getName();
+			this.field = field;
+			this.type = field.getType();
+		}
+
+		String get(Object obj) {
+			Object value;
+			try {
+				value = field.get(obj);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("read field error:" + name, e);
+			}
+			if (value == null) {
+				return null;
+			}
+			if (value instanceof String || value instanceof Number || value instanceof Boolean
+					|| value instanceof Character) {
+				return value.toString();
+			}
+			if (value instanceof Enum) {
+				return ((Enum<?>) value).name();
+			}
+			return JSON.toJSONString(value);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		void set(Object obj, String value) {
+			Object parsed;
+			if (type == String.class) {
+				parsed = value;
+			} else if (type == int.class || type == Integer.class) {
+				parsed = Integer.valueOf(value);
+			} else if (type == long.class || type == Long.class) {
+				parsed = Long.valueOf(value);
+			} else if (type == double.class || type == Double.class) {
+				parsed = Double.valueOf(value);
+			} else if (type == float.class || type == Float.class) {
+				parsed = Float.valueOf(value);
+			} else if (type == boolean.class || type == Boolean.class) {
+				parsed = Boolean.valueOf(value);
+			} else if (type == short.class || type == Short.class) {
+				parsed = Short.valueOf(value);
+			} else if (type == byte.class || type == Byte.class) {
+				parsed = Byte.valueOf(value);
+			} else if (type == char.class || type == Character.class) {
+				parsed = value.charAt(0);
+			} else if (type == BigDecimal.class) {
+				parsed = new BigDecimal(value);
+			} else if (type.isEnum()) {
+				parsed = Enum.valueOf((Class<? extends Enum>) type, value);
+			} else {
+				parsed = JSON.parseObject(value, field.getGenericType());
+			}
+			try {
+				field.set(obj, parsed);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("write field error:" + name, e);
+			}
+		}
+	}
+}
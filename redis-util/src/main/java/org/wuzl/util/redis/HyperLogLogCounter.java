@@ -0,0 +1,264 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * 基于HyperLogLog的基数统计(UV等)</br>
+ * <ul>
+ * <li>每个计数器固定占用约12K内存，标准误差0.81%，替代Set+SCARD</li>
+ * <li>{@link #offer(String, String)}只在本地缓冲，达到batchSize或后台定时通过pipeline按key合并成PFADD写入</li>
+ * <li>多个计数器的批量写入和批量查询各只需一次往返</li>
+ * </ul>
+ *
+ * @author ziliang.wu
+ */
+public class HyperLogLogCounter {
+
+	private static final Logger logger = LoggerFactory.getLogger(HyperLogLogCounter.class);
+
+	private final JedisUtil jedisUtil;
+
+	/**
+	 * 缓冲的条数达到该值时立即写入
+	 */
+	private int batchSize = 1000;
+
+	private final ConcurrentLinkedQueue<String[]> pending = new ConcurrentLinkedQueue<String[]>();
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	private ScheduledExecutorService scheduler;
+
+	public HyperLogLogCounter() {
+		this.jedisUtil = JedisUtil.getInstance();
+	}
+
+	/**
+	 * 立即添加元素
+	 *
+	 * @param key
+	 * @param members
+	 * @return 基数估计值发生变化时返回true
+	 */
+	public boolean add(String key, String... members) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.pfadd(key, members) == 1;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 通过一个pipeline向多个计数器添加元素
+	 *
+	 * @param keyMembers
+	 *            计数器与要添加的元素
+	 */
+	public void add(Map<String, ? extends Collection<String>> keyMembers) {
+		if (keyMembers.isEmpty()) {
+			return;
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			for (Map.Entry<String, ? extends Collection<String>> entry : keyMembers.entrySet()) {
+				Collection<String> members = entry.getValue();
+				if (!members.isEmpty()) {
+					pipeline.pfadd(entry.getKey(), members.toArray(new String[members.size()]));
+				}
+			}
+			pipeline.sync();
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 缓冲添加，由{@link #flush()}或后台线程批量写入
+	 *
+	 * @param key
+	 * @param member
+	 */
+	public void offer(String key, String member) {
+		pending.offer(new String[] { key, member });
+		if (pendingCount.incrementAndGet() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * 把缓冲的元素按key合并后通过pipeline写入
+	 *
+	 * @return 写入的元素个数
+	 */
+	public int flush() {
+		Map<String, List<String>> batch = drain();
+		int count = 0;
+		for (List<String> members : batch.values()) {
+			count += members.size();
+		}
+		if (count == 0) {
+			return 0;
+		}
+		try {
+			add(batch);
+		} catch (RuntimeException e) {
+			// 写入失败时放回，等待下次重试
+			for (Map.Entry<String, List<String>> entry : batch.entrySet()) {
+				for (String member : entry.getValue()) {
+					pending.offer(new String[] { entry.getKey(), member });
+					pendingCount.incrementAndGet();
+				}
+			}
+			throw e;
+		}
+		return count;
+	}
+
+	/**
+	 * 取出全部缓冲的元素，按key合并
+	 */
+	Map<String, List<String>> drain() {
+		Map<String, List<String>> batch = new HashMap<String, List<String>>();
+		String[] item;
+		while ((item = pending.poll()) != null) {
+			pendingCount.decrementAndGet();
+			List<String> members = batch.get(item[0]);
+			if (members == null) {
+				members = new ArrayList<String>();
+				batch.put(item[0], members);
+			}
+			members.add(item[1]);
+		}
+		return batch;
+	}
+
+	/**
+	 * @return 缓冲中等待写入的元素个数
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * 基数估计值，多个key时为并集的基数
+	 *
+	 * @param keys
+	 */
+	public long count(String... keys) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.pfcount(keys);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 通过一个pipeline分别查询多个计数器
+	 *
+	 * @param keys
+	 * @return 每个key的基数估计值
+	 */
+	public Map<String, Long> countEach(Collection<String> keys) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		if (keys.isEmpty()) {
+			return result;
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			Map<String, Response<Long>> responses = new LinkedHashMap<String, Response<Long>>();
+			for (String key : keys) {
+				responses.put(key, pipeline.pfcount(key));
+			}
+			pipeline.sync();
+			for (Map.Entry<String, Response<Long>> entry : responses.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().get());
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 把多个计数器合并到destKey，例如把每日UV合并成每周UV
+	 *
+	 * @param destKey
+	 * @param sourceKeys
+	 */
+	public void merge(String destKey, String... sourceKeys) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			jedis.pfmerge(destKey, sourceKeys);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 启动后台定时写入
+	 *
+	 * @param intervalMillis
+	 *            写入间隔
+	 */
+	public synchronized void start(long intervalMillis) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-hll-flusher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					logger.error("flush hyperloglog error", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止后台线程并写入剩余的缓冲
+	 */
+	public synchronized void shutdown() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		scheduler = null;
+		flush();
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+}
@@ -3,25 +3,40 @@ package org.wuzl.util.redis;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.pool2.impl.BaseObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import redis.clients.jedis.BinaryClient.LIST_POSITION;
+import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.ShardedJedisPool;
 import redis.clients.jedis.SortingParams;
+import redis.clients.jedis.Transaction;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.util.SafeEncoder;
 
 /**
@@ -45,7 +60,9 @@ public class JedisUtil {
 	 */
 	private static String FILE_NAME = "redis.properties";
 
-	private static JedisPool jedisPool = null;
+	private static ManagedJedisPool jedisPool = null;
+	private static volatile CircuitBreaker circuitBreaker;
+	private static volatile LeakDetector leakDetector;
 	private ShardedJedisPool shardedJedisPool = null;
 
 	// 默认链接池参数
@@ -66,6 +83,10 @@ public class JedisUtil {
 	 * 当连接池资源耗尽时，调用者最大阻塞的时间，超时将跑出异常。单位，毫秒数;默认为-1.表示永不超时
 	 */
 	private static Integer MAXWAITMILLIS = 10000;
+	/**
+	 * 批量设置过期时间时，一次pipeline同步的最大命令数
+	 */
+	private static final int EXPIRE_BATCH = 1000;
 	/**
 	 * 连接空闲的最小时间，达到此值后空闲连接将可能会被移除。负值(-1)表示不移除.
 	 */
@@ -116,6 +137,26 @@ public class JedisUtil {
 
 	private static AtomicBoolean isInited = new AtomicBoolean(false);
 
+	/**
+	 * 过期时间抖动，为null时不抖动
+	 */
+	private static volatile TtlJitter ttlJitter;
+
+	/**
+	 * 已创建的key空间
+	 */
+	private static final ConcurrentHashMap<String, Namespace> NAMESPACES = new ConcurrentHashMap<String, Namespace>();
+
+	/**
+	 * 按操作统计的超时次数
+	 */
+	private static final ConcurrentHashMap<String, AtomicLong> TIMEOUTS = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * 当前线程的会话
+	 */
+	private static final ThreadLocal<Session> SESSION = new ThreadLocal<Session>();
+
 	private JedisUtil() {
 
 	}
@@ -156,13 +197,15 @@ public class JedisUtil {
 			if (dataBaseStr != null && dataBaseStr.length() > 0) {
 				dataBase = Integer.valueOf(dataBaseStr);
 			}
-			jedisPool = new JedisPool(config, host, port, timeOut, password, dataBase);
+			jedisPool = new ManagedJedisPool(config, host, port, timeOut, password, dataBase);
+			jedisPool.setCircuitBreaker(circuitBreaker);
+			jedisPool.setLeakDetector(leakDetector);
 
 			info_log.info("JedisUtil has been inited.........");
 		}
 	}
 
-	private static Properties loadRedisProperties() {
+	static Properties loadRedisProperties() {
 		Properties prop = null;
 		// 读取配置文件
 		InputStream is = JedisUtil.class.getClassLoader().getResourceAsStream(FILE_NAME);
@@ -266,7 +309,7 @@ public class JedisUtil {
 		}
 	}
 
-	public JedisPool getPool() {
+	public ManagedJedisPool getPool() {
 		return jedisPool;
 	}
 
@@ -275,11 +318,16 @@ public class JedisUtil {
 	}
 
 	/**
-	 * 从jedis连接池中获取获取jedis对象 wuzl加入同步代码
+	 * 从jedis连接池中获取获取jedis对象 wuzl加入同步代码</br>
+	 * 在{@link #withSession(SessionCallback)}范围内返回会话固定的连接
 	 * 
 	 * @return
 	 */
 	public Jedis getJedis() {
+		Session session = SESSION.get();
+		if (session != null) {
+			return session.select(session.defaultDB);
+		}
 		return jedisPool.getResource();
 	}
 
@@ -288,8 +336,17 @@ public class JedisUtil {
 	 * @return
 	 */
 	public Jedis getJedis(int DBindex) {
+		Session session = SESSION.get();
+		if (session != null) {
+			return session.select(DBindex);
+		}
 		Jedis jedis = jedisPool.getResource();
-		jedis.select(DBindex);
+		try {
+			jedis.select(DBindex);
+		} catch (RuntimeException e) {
+			jedis.close();
+			throw e;
+		}
 		return jedis;
 	}
 
@@ -308,10 +365,255 @@ public class JedisUtil {
 	 * @param jedis
 	 */
 	public void returnJedis(Jedis jedis) {
+		Session session = SESSION.get();
+		if (session != null && session.jedis == jedis) {
+			// 会话中的连接在会话结束时归还
+			return;
+		}
 		// jedisPool.returnResource(jedis);
 		jedis.close();
 	}
 
+	/**
+	 * 在一个固定的连接上执行多个操作</br>
+	 * 范围内当前线程通过KEYS、STRINGS、HASH等进行的所有操作都复用同一个连接(包括其选择的DB)，范围结束后归还连接；
+	 * 适用于循环中的多次调用，避免每次调用都从连接池借还。嵌套调用时复用外层的会话</br>
+	 * 范围内不能同时持有两个连接，例如不能在遍历一个pipeline的同时通过KEYS等发出其他命令
+	 *
+	 * @param callback
+	 * @return callback的返回值
+	 */
+	public static <T> T withSession(SessionCallback<T> callback) {
+		Session session = SESSION.get();
+		if (session != null) {
+			return callback.doInSession(session);
+		}
+		Jedis jedis = jedisPool.getResource();
+		jedisPool.skipLatency(jedis);
+		session = new Session(jedis);
+		SESSION.set(session);
+		try {
+			return callback.doInSession(session);
+		} finally {
+			SESSION.remove();
+			jedis.close();
+		}
+	}
+
+	/**
+	 * 在时间预算内执行多个操作</br>
+	 * 与{@link #withSession(SessionCallback)}一样固定一个连接，借用连接最多等待timeoutMillis，
+	 * 范围内每次操作前把socket读超时设置为剩余的预算，预算耗尽、借用超时或读取超时时抛出{@link DeadlineExceededException}</br>
+	 * 嵌套调用时复用外层的连接，预算取内外层中较早的截止时间
+	 *
+	 * @param timeoutMillis
+	 *            时间预算，毫秒
+	 * @param callback
+	 * @return callback的返回值
+	 */
+	public static <T> T withDeadline(long timeoutMillis, SessionCallback<T> callback) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		Session session = SESSION.get();
+		if (session != null) {
+			long previous = session.deadline;
+			session.deadline = previous > 0 ? Math.min(previous, deadline) : deadline;
+			try {
+				return runWithDeadline(session, callback);
+			} finally {
+				session.deadline = previous;
+				if (previous == 0) {
+					session.restoreTimeout();
+				}
+			}
+		}
+		Jedis jedis;
+		try {
+			jedis = jedisPool.getResource(Math.max(timeoutMillis, 1));
+		} catch (JedisConnectionException e) {
+			if (e.getCause() instanceof NoSuchElementException) {
+				throw timeout("getResource", "borrow connection timeout after " + timeoutMillis + "ms", e);
+			}
+			throw e;
+		}
+		jedisPool.skipLatency(jedis);
+		session = new Session(jedis);
+		session.deadline = deadline;
+		SESSION.set(session);
+		try {
+			return runWithDeadline(session, callback);
+		} finally {
+			SESSION.remove();
+			session.restoreTimeout();
+			jedis.close();
+		}
+	}
+
+	private static <T> T runWithDeadline(Session session, SessionCallback<T> callback) {
+		try {
+			return callback.doInSession(session);
+		} catch (DeadlineExceededException e) {
+			throw e;
+		} catch (JedisConnectionException e) {
+			if (isSocketTimeout(e)) {
+				throw timeout(commandOf(e), "read timeout,deadline exceeded", e);
+			}
+			throw e;
+		}
+	}
+
+	private static boolean isSocketTimeout(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SocketTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 从异常栈中找出超时的操作，优先取JedisUtil中的方法，例如Hash.hget
+	 */
+	private static String commandOf(Throwable e) {
+		String caller = null;
+		for (StackTraceElement element : e.getStackTrace()) {
+			String className = element.getClassName();
+			if (className.startsWith(JedisUtil.class.getName() + "$")) {
+				return className.substring(className.lastIndexOf('$') + 1) + "." + element.getMethodName();
+			}
+			if (caller == null && !className.startsWith("redis.clients.") && !className.startsWith("java.")
+					&& !className.equals(JedisUtil.class.getName())) {
+				caller = className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName();
+			}
+		}
+		return caller == null ? "unknown" : caller;
+	}
+
+	private static DeadlineExceededException timeout(String command, String message, Throwable cause) {
+		AtomicLong count = TIMEOUTS.get(command);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = TIMEOUTS.putIfAbsent(command, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		return new DeadlineExceededException(command, message + ",command:" + command, cause);
+	}
+
+	/**
+	 * @return 按操作统计的超时次数
+	 */
+	public static Map<String, Long> getTimeoutCounts() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : TIMEOUTS.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	/**
+	 * 获取带前缀的key空间，同一前缀返回同一实例
+	 *
+	 * @param prefix
+	 *            key前缀，例如user:
+	 * @return
+	 */
+	public static Namespace namespace(String prefix) {
+		Namespace namespace = NAMESPACES.get(prefix);
+		if (namespace == null) {
+			Namespace created = new Namespace(prefix);
+			namespace = NAMESPACES.putIfAbsent(prefix, created);
+			if (namespace == null) {
+				namespace = created;
+			}
+		}
+		return namespace;
+	}
+
+	/**
+	 * 会话中执行的操作
+	 */
+	public interface SessionCallback<T> {
+		T doInSession(Session session);
+	}
+
+	/**
+	 * 固定一个连接的会话，只能在创建它的线程中使用
+	 */
+	public static class Session {
+		private final Jedis jedis;
+		private final int defaultDB;
+		private final int soTimeout;
+		private int db;
+		/**
+		 * 截止时间，为0时没有时间预算
+		 */
+		private long deadline;
+		private boolean timeoutChanged;
+
+		Session(Jedis jedis) {
+			this.jedis = jedis;
+			this.defaultDB = (int) jedis.getDB().longValue();
+			this.soTimeout = jedis.getClient().getSoTimeout();
+			this.db = defaultDB;
+		}
+
+		/**
+		 * 切换到指定DB，DB未变化时不发送SELECT；有时间预算时先把读超时设置为剩余的预算
+		 */
+		Jedis select(int index) {
+			if (deadline > 0) {
+				applyDeadline();
+			}
+			if (db != index) {
+				jedis.select(index);
+				db = index;
+			}
+			return jedis;
+		}
+
+		private void applyDeadline() {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw timeout(commandOf(new Throwable()), "deadline exceeded before execute", null);
+			}
+			Client client = jedis.getClient();
+			client.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+			client.rollbackTimeout();
+			timeoutChanged = true;
+		}
+
+		/**
+		 * 恢复连接原来的读超时
+		 */
+		void restoreTimeout() {
+			if (!timeoutChanged) {
+				return;
+			}
+			timeoutChanged = false;
+			Client client = jedis.getClient();
+			client.setSoTimeout(soTimeout);
+			if (client.isConnected() && !client.isBroken()) {
+				client.rollbackTimeout();
+			}
+		}
+
+		/**
+		 * @return 会话固定的连接，用于JedisUtil没有封装的命令；有时间预算时读超时为获取连接时剩余的预算
+		 */
+		public Jedis getJedis() {
+			return select(defaultDB);
+		}
+
+		/**
+		 * @return 连接当前选择的DB
+		 */
+		public int getDB() {
+			return db;
+		}
+	}
+
 	/**
 	 * 设置过期时间
 	 *
@@ -323,8 +625,11 @@ public class JedisUtil {
 			return;
 		}
 		Jedis jedis = getJedis();
-		jedis.expire(key, seconds);
-		returnJedis(jedis);
+		try {
+			jedis.expire(key, jitterTtl(seconds));
+		} finally {
+			returnJedis(jedis);
+		}
 	}
 
 	public void expire(String key, int seconds, int DBindex) {
@@ -332,8 +637,127 @@ public class JedisUtil {
 			return;
 		}
 		Jedis jedis = getJedis(DBindex);
-		jedis.expire(key, seconds);
-		returnJedis(jedis);
+		try {
+			jedis.expire(key, jitterTtl(seconds));
+		} finally {
+			returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 批量设置过期时间，通过pipeline发送，每EXPIRE_BATCH条同步一次
+	 *
+	 * @param keySeconds
+	 *            key与过期秒数的对应关系，秒数小于等于0的key会被忽略
+	 * @return 设置成功的key数量
+	 */
+	public long expire(Map<String, Integer> keySeconds) {
+		long count = 0;
+		Jedis jedis = getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<Long>> responses = new ArrayList<Response<Long>>(Math.min(keySeconds.size(), EXPIRE_BATCH));
+			for (Map.Entry<String, Integer> entry : keySeconds.entrySet()) {
+				if (entry.getValue() == null || entry.getValue() <= 0) {
+					continue;
+				}
+				responses.add(pipeline.expire(entry.getKey(), jitterTtl(entry.getValue())));
+				if (responses.size() >= EXPIRE_BATCH) {
+					count += syncCount(pipeline, responses);
+				}
+			}
+			count += syncCount(pipeline, responses);
+		} finally {
+			returnJedis(jedis);
+		}
+		return count;
+	}
+
+	/**
+	 * 把一批key的过期时间均匀分散到[seconds, seconds+windowSeconds]内，避免同时过期，通过pipeline发送
+	 *
+	 * @param keys
+	 * @param seconds
+	 *            基础过期时间
+	 * @param windowSeconds
+	 *            分散的窗口长度
+	 * @return 设置成功的key数量
+	 */
+	public long expireSpread(Collection<String> keys, int seconds, int windowSeconds) {
+		if (seconds <= 0) {
+			return 0;
+		}
+		long count = 0;
+		long index = 0;
+		Jedis jedis = getJedis();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<Long>> responses = new ArrayList<Response<Long>>(Math.min(keys.size(), EXPIRE_BATCH));
+			for (String key : keys) {
+				responses.add(pipeline.expire(key, TtlJitter.spread(seconds, windowSeconds, index++, keys.size())));
+				if (responses.size() >= EXPIRE_BATCH) {
+					count += syncCount(pipeline, responses);
+				}
+			}
+			count += syncCount(pipeline, responses);
+		} finally {
+			returnJedis(jedis);
+		}
+		return count;
+	}
+
+	/**
+	 * 设置连接池的熔断器，打开期间借用连接直接抛出{@link CircuitOpenException}
+	 *
+	 * @param breaker
+	 *            为null时不熔断
+	 */
+	public static void setCircuitBreaker(CircuitBreaker breaker) {
+		circuitBreaker = breaker;
+		if (jedisPool != null) {
+			jedisPool.setCircuitBreaker(breaker);
+		}
+	}
+
+	/**
+	 * 设置连接泄漏检测，需要调用{@link LeakDetector#start()}启动后台检查
+	 *
+	 * @param detector
+	 *            为null时不检测
+	 */
+	public static void setLeakDetector(LeakDetector detector) {
+		leakDetector = detector;
+		if (jedisPool != null) {
+			jedisPool.setLeakDetector(detector);
+		}
+	}
+
+	/**
+	 * 设置全局的过期时间抖动，所有带过期时间的方法都会生效
+	 *
+	 * @param jitter
+	 *            为null时不抖动
+	 */
+	public static void setTtlJitter(TtlJitter jitter) {
+		ttlJitter = jitter;
+	}
+
+	/**
+	 * 按全局设置对过期时间加上抖动
+	 */
+	static int jitterTtl(int seconds) {
+		TtlJitter jitter = ttlJitter;
+		return jitter == null ? seconds : jitter.apply(seconds);
+	}
+
+	private static long syncCount(Pipeline pipeline, List<Response<Long>> responses) {
+		pipeline.sync();
+		long count = 0;
+		for (Response<Long> response : responses) {
+			count += response.get();
+		}
+		responses.clear();
+		return count;
 	}
 
 	/**
@@ -348,9 +772,12 @@ public class JedisUtil {
 		 */
 		public String flushAll() {
 			Jedis jedis = getJedis();
-			String stata = jedis.flushAll();
-			returnJedis(jedis);
-			return stata;
+			try {
+				String stata = jedis.flushAll();
+				return stata;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -377,9 +804,12 @@ public class JedisUtil {
 		 */
 		public long renamenx(String oldkey, String newkey) {
 			Jedis jedis = getJedis();
-			long status = jedis.renamenx(oldkey, newkey);
-			returnJedis(jedis);
-			return status;
+			try {
+				long status = jedis.renamenx(oldkey, newkey);
+				return status;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -393,9 +823,12 @@ public class JedisUtil {
 		 */
 		public String rename(byte[] oldkey, byte[] newkey) {
 			Jedis jedis = getJedis();
-			String status = jedis.rename(oldkey, newkey);
-			returnJedis(jedis);
-			return status;
+			try {
+				String status = jedis.rename(oldkey, newkey);
+				return status;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -409,16 +842,22 @@ public class JedisUtil {
 		 */
 		public long expired(String key, int seconds) {
 			Jedis jedis = getJedis();
-			long count = jedis.expire(key, seconds);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.expire(key, jitterTtl(seconds));
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long expired(String key, int seconds, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long count = jedis.expire(key, seconds);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.expire(key, jitterTtl(seconds));
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -432,9 +871,12 @@ public class JedisUtil {
 		 */
 		public long expireAt(String key, long timestamp) {
 			Jedis jedis = getJedis();
-			long count = jedis.expireAt(key, timestamp);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.expireAt(key, timestamp);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -447,9 +889,12 @@ public class JedisUtil {
 		public long ttl(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long len = sjedis.ttl(key);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.ttl(key);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -460,9 +905,12 @@ public class JedisUtil {
 		 */
 		public long persist(String key) {
 			Jedis jedis = getJedis();
-			long count = jedis.persist(key);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.persist(key);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -474,16 +922,22 @@ public class JedisUtil {
 		 */
 		public long del(String... keys) {
 			Jedis jedis = getJedis();
-			long count = jedis.del(keys);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.del(keys);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long del(int DBindex, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			long count = jedis.del(keys);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.del(keys);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -495,9 +949,12 @@ public class JedisUtil {
 		 */
 		public long del(byte[]... keys) {
 			Jedis jedis = getJedis();
-			long count = jedis.del(keys);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.del(keys);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -510,17 +967,23 @@ public class JedisUtil {
 		public boolean exists(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			boolean exis = sjedis.exists(key);
-			returnJedis(sjedis);
-			return exis;
+			try {
+				boolean exis = sjedis.exists(key);
+				return exis;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public boolean exists(String key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			boolean exis = sjedis.exists(key);
-			returnJedis(sjedis);
-			return exis;
+			try {
+				boolean exis = sjedis.exists(key);
+				return exis;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -533,9 +996,12 @@ public class JedisUtil {
 		public List<String> sort(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<String> list = sjedis.sort(key);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.sort(key);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -550,9 +1016,12 @@ public class JedisUtil {
 		public List<String> sort(String key, SortingParams parame) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<String> list = sjedis.sort(key, parame);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.sort(key, parame);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -565,9 +1034,12 @@ public class JedisUtil {
 		public String type(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			String type = sjedis.type(key);
-			returnJedis(sjedis);
-			return type;
+			try {
+				String type = sjedis.type(key);
+				return type;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -578,16 +1050,41 @@ public class JedisUtil {
 		 */
 		public Set<String> keys(String pattern) {
 			Jedis jedis = getJedis();
-			Set<String> set = jedis.keys(pattern);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.keys(pattern);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public ScanResult<String> scan(String cursor) {
 			Jedis jedis = getJedis();
-			ScanResult<String> result = jedis.scan(cursor);
-			returnJedis(jedis);
-			return result;
+			try {
+				ScanResult<String> result = jedis.scan(cursor);
+				return result;
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 增量迭代key
+		 *
+		 * @param String
+		 *            cursor 游标，从"0"开始，返回"0"表示迭代结束
+		 * @param ScanParams
+		 *            params 匹配模式和每次返回的数量
+		 * @return 本次迭代的结果
+		 */
+		public ScanResult<String> scan(String cursor, ScanParams params) {
+			Jedis jedis = getJedis();
+			try {
+				ScanResult<String> result = jedis.scan(cursor, params);
+				return result;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 	}
 
@@ -609,30 +1106,69 @@ public class JedisUtil {
 		 */
 		public long sadd(String key, String member) {
 			Jedis jedis = getJedis();
-			long s = jedis.sadd(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sadd(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sadd(String key, String member, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.sadd(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sadd(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sadd(byte[] key, byte[] member) {
 			Jedis jedis = getJedis();
-			long s = jedis.sadd(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sadd(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sadd(byte[] key, byte[] member, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.sadd(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sadd(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 向Set添加记录并设置过期时间，在一个事务中完成
+		 *
+		 * @param String
+		 *            key
+		 * @param int
+		 *            seconds 过期时间，以秒为单位，小于等于0时不设置
+		 * @param String
+		 *            ... members
+		 * @return 新增的成员数
+		 */
+		public long saddEx(String key, int seconds, String... members) {
+			Jedis jedis = getJedis();
+			try {
+				if (seconds <= 0) {
+					return jedis.sadd(key, members);
+				}
+				Transaction t = jedis.multi();
+				Response<Long> s = t.sadd(key, members);
+				t.expire(key, jitterTtl(seconds));
+				t.exec();
+				return s.get();
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -645,17 +1181,23 @@ public class JedisUtil {
 		public long scard(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long len = sjedis.scard(key);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.scard(key);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public long scard(String key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			long len = sjedis.scard(key);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.scard(key);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -667,16 +1209,22 @@ public class JedisUtil {
 		 */
 		public Set<String> sdiff(String... keys) {
 			Jedis jedis = getJedis();
-			Set<String> set = jedis.sdiff(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sdiff(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public Set<String> sdiff(int DBindex, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			Set<String> set = jedis.sdiff(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sdiff(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -690,16 +1238,22 @@ public class JedisUtil {
 		 **/
 		public long sdiffstore(int DBindex, String newkey, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.sdiffstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sdiffstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sdiffstore(String newkey, String... keys) {
 			Jedis jedis = getJedis();
-			long s = jedis.sdiffstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sdiffstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -711,16 +1265,22 @@ public class JedisUtil {
 		 **/
 		public Set<String> sinter(String... keys) {
 			Jedis jedis = getJedis();
-			Set<String> set = jedis.sinter(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sinter(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public Set<String> sinter(int DBindex, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			Set<String> set = jedis.sinter(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sinter(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -734,16 +1294,22 @@ public class JedisUtil {
 		 **/
 		public long sinterstore(String newkey, String... keys) {
 			Jedis jedis = getJedis();
-			long s = jedis.sinterstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sinterstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sinterstore(int DBindex, String newkey, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.sinterstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sinterstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -758,17 +1324,23 @@ public class JedisUtil {
 		public boolean sismember(String key, String member) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			boolean s = sjedis.sismember(key, member);
-			returnJedis(sjedis);
-			return s;
+			try {
+				boolean s = sjedis.sismember(key, member);
+				return s;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public boolean sismember(int DBindex, String key, String member) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			boolean s = sjedis.sismember(key, member);
-			returnJedis(sjedis);
-			return s;
+			try {
+				boolean s = sjedis.sismember(key, member);
+				return s;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -781,33 +1353,45 @@ public class JedisUtil {
 		public Set<String> smembers(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.smembers(key);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.smembers(key);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<String> smembers(String key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			Set<String> set = sjedis.smembers(key);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.smembers(key);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<byte[]> smembers(byte[] key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<byte[]> set = sjedis.smembers(key);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<byte[]> set = sjedis.smembers(key);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<byte[]> smembers(byte[] key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			Set<byte[]> set = sjedis.smembers(key);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<byte[]> set = sjedis.smembers(key);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -825,16 +1409,22 @@ public class JedisUtil {
 		 */
 		public long smove(String srckey, String dstkey, String member) {
 			Jedis jedis = getJedis();
-			long s = jedis.smove(srckey, dstkey, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.smove(srckey, dstkey, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long smove(String srckey, String dstkey, String member, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.smove(srckey, dstkey, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.smove(srckey, dstkey, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -846,16 +1436,22 @@ public class JedisUtil {
 		 */
 		public String spop(String key) {
 			Jedis jedis = getJedis();
-			String s = jedis.spop(key);
-			returnJedis(jedis);
-			return s;
+			try {
+				String s = jedis.spop(key);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String spop(String key, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			String s = jedis.spop(key);
-			returnJedis(jedis);
-			return s;
+			try {
+				String s = jedis.spop(key);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -869,16 +1465,22 @@ public class JedisUtil {
 		 */
 		public long srem(String key, String member) {
 			Jedis jedis = getJedis();
-			long s = jedis.srem(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.srem(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long srem(String key, String member, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.srem(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.srem(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -891,16 +1493,22 @@ public class JedisUtil {
 		 */
 		public Set<String> sunion(String... keys) {
 			Jedis jedis = getJedis();
-			Set<String> set = jedis.sunion(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sunion(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public Set<String> sunion(int DBindex, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			Set<String> set = jedis.sunion(keys);
-			returnJedis(jedis);
-			return set;
+			try {
+				Set<String> set = jedis.sunion(keys);
+				return set;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -913,16 +1521,22 @@ public class JedisUtil {
 		 **/
 		public long sunionstore(String newkey, String... keys) {
 			Jedis jedis = getJedis();
-			long s = jedis.sunionstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sunionstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long sunionstore(int DBindex, String newkey, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			long s = jedis.sunionstore(newkey, keys);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.sunionstore(newkey, keys);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 	}
 
@@ -942,16 +1556,57 @@ public class JedisUtil {
 		 */
 		public long zadd(String key, double score, String member) {
 			Jedis jedis = getJedis();
-			long s = jedis.zadd(key, score, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zadd(key, score, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long zadd(String key, Map<String, Double> scoreMembers) {
 			Jedis jedis = getJedis();
-			long s = jedis.zadd(key, scoreMembers);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zadd(key, scoreMembers);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 向集合中增加一条记录并设置过期时间，在一个事务中完成
+		 *
+		 * @param String
+		 *            key
+		 * @param int
+		 *            seconds 过期时间，以秒为单位，小于等于0时不设置
+		 * @param double
+		 *            score 权重
+		 * @param String
+		 *            member 要加入的值
+		 * @return 状态码 1成功，0已存在member的值
+		 */
+		public long zaddEx(String key, int seconds, double score, String member) {
+			Map<String, Double> scoreMembers = new HashMap<String, Double>(2);
+			scoreMembers.put(member, score);
+			return zaddEx(key, seconds, scoreMembers);
+		}
+
+		public long zaddEx(String key, int seconds, Map<String, Double> scoreMembers) {
+			Jedis jedis = getJedis();
+			try {
+				if (seconds <= 0) {
+					return jedis.zadd(key, scoreMembers);
+				}
+				Transaction t = jedis.multi();
+				Response<Long> s = t.zadd(key, scoreMembers);
+				t.expire(key, jitterTtl(seconds));
+				t.exec();
+				return s.get();
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -964,9 +1619,12 @@ public class JedisUtil {
 		public long zcard(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long len = sjedis.zcard(key);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.zcard(key);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -982,9 +1640,12 @@ public class JedisUtil {
 		public long zcount(String key, double min, double max) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long len = sjedis.zcount(key, min, max);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.zcount(key, min, max);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1013,9 +1674,12 @@ public class JedisUtil {
 		 */
 		public double zincrby(String key, double score, String member) {
 			Jedis jedis = getJedis();
-			double s = jedis.zincrby(key, score, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				double s = jedis.zincrby(key, score, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1032,9 +1696,12 @@ public class JedisUtil {
 		public Set<String> zrange(String key, int start, int end) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.zrange(key, start, end);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.zrange(key, start, end);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1051,33 +1718,45 @@ public class JedisUtil {
 		public Set<String> zrangeByScore(String key, double min, double max) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.zrangeByScore(key, min, max);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.zrangeByScore(key, min, max);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<String> zrangeByScore(String key, String min, String max, int offset, int count) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.zrangeByScore(key, min, max, offset, count);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.zrangeByScore(key, min, max, offset, count);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<String> zrevrangeByScore(String key, String max, String min, int offset, int count) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.zrevrangeByScore(key, max, min, offset, count);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.zrevrangeByScore(key, max, min, offset, count);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Set<Tuple> zrevrangeByScoreWithScores(String key, String max, String min, int offset, int count) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<Tuple> set = sjedis.zrevrangeByScoreWithScores(key, max, min, offset, count);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<Tuple> set = sjedis.zrevrangeByScoreWithScores(key, max, min, offset, count);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1093,9 +1772,12 @@ public class JedisUtil {
 		public long zrank(String key, String member) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long index = sjedis.zrank(key, member);
-			returnJedis(sjedis);
-			return index;
+			try {
+				long index = sjedis.zrank(key, member);
+				return index;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1111,9 +1793,12 @@ public class JedisUtil {
 		public long zrevrank(String key, String member) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long index = sjedis.zrevrank(key, member);
-			returnJedis(sjedis);
-			return index;
+			try {
+				long index = sjedis.zrevrank(key, member);
+				return index;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1127,16 +1812,22 @@ public class JedisUtil {
 		 */
 		public long zrem(String key, String member) {
 			Jedis jedis = getJedis();
-			long s = jedis.zrem(key, member);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zrem(key, member);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long zrem(String key, String... members) {
 			Jedis jedis = getJedis();
-			long s = jedis.zrem(key, members);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zrem(key, members);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1147,9 +1838,12 @@ public class JedisUtil {
 		 */
 		public long zrem(String key) {
 			Jedis jedis = getJedis();
-			long s = jedis.del(key);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.del(key);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1165,9 +1859,12 @@ public class JedisUtil {
 		 */
 		public long zremrangeByRank(String key, int start, int end) {
 			Jedis jedis = getJedis();
-			long s = jedis.zremrangeByRank(key, start, end);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zremrangeByRank(key, start, end);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1183,16 +1880,22 @@ public class JedisUtil {
 		 */
 		public long zremrangeByScore(String key, double min, double max) {
 			Jedis jedis = getJedis();
-			long s = jedis.zremrangeByScore(key, min, max);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zremrangeByScore(key, min, max);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long zremrangeByScore(String key, String min, String max, int offset, int count) {
 			Jedis jedis = getJedis();
-			long s = jedis.zremrangeByScore(key, min, max);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.zremrangeByScore(key, min, max);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1209,9 +1912,12 @@ public class JedisUtil {
 		public Set<String> zrevrange(String key, int start, int end) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.zrevrange(key, start, end);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.zrevrange(key, start, end);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1225,11 +1931,14 @@ public class JedisUtil {
 		public double zscore(String key, String memebr) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Double score = sjedis.zscore(key, memebr);
-			returnJedis(sjedis);
-			if (score != null)
-				return score;
-			return 0;
+			try {
+				Double score = sjedis.zscore(key, memebr);
+				if (score != null)
+					return score;
+				return 0;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 	}
 
@@ -1247,23 +1956,32 @@ public class JedisUtil {
 		 */
 		public long hdel(String key, String fieid) {
 			Jedis jedis = getJedis();
-			long s = jedis.hdel(key, fieid);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hdel(key, fieid);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long hdel(String key, String... fieids) {
 			Jedis jedis = getJedis();
-			long s = jedis.hdel(key, fieids);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hdel(key, fieids);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long hdel(String key) {
 			Jedis jedis = getJedis();
-			long s = jedis.del(key);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.del(key);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1278,9 +1996,12 @@ public class JedisUtil {
 		public boolean hexists(String key, String fieid) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			boolean s = sjedis.hexists(key, fieid);
-			returnJedis(sjedis);
-			return s;
+			try {
+				boolean s = sjedis.hexists(key, fieid);
+				return s;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1295,17 +2016,23 @@ public class JedisUtil {
 		public String hget(String key, String fieid) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			String s = sjedis.hget(key, fieid);
-			returnJedis(sjedis);
-			return s;
+			try {
+				String s = sjedis.hget(key, fieid);
+				return s;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public byte[] hget(byte[] key, byte[] fieid) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			byte[] s = sjedis.hget(key, fieid);
-			returnJedis(sjedis);
-			return s;
+			try {
+				byte[] s = sjedis.hget(key, fieid);
+				return s;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1318,9 +2045,12 @@ public class JedisUtil {
 		public Map<String, String> hgetAll(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Map<String, String> map = sjedis.hgetAll(key);
-			returnJedis(sjedis);
-			return map;
+			try {
+				Map<String, String> map = sjedis.hgetAll(key);
+				return map;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1336,16 +2066,22 @@ public class JedisUtil {
 		 **/
 		public long hset(String key, String fieid, String value) {
 			Jedis jedis = getJedis();
-			long s = jedis.hset(key, fieid, value);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hset(key, fieid, value);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long hset(String key, String fieid, byte[] value) {
 			Jedis jedis = getJedis();
-			long s = jedis.hset(key.getBytes(), fieid.getBytes(), value);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hset(key.getBytes(), fieid.getBytes(), value);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1361,9 +2097,12 @@ public class JedisUtil {
 		 **/
 		public long hsetnx(String key, String fieid, String value) {
 			Jedis jedis = getJedis();
-			long s = jedis.hsetnx(key, fieid, value);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hsetnx(key, fieid, value);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1376,9 +2115,12 @@ public class JedisUtil {
 		public List<String> hvals(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<String> list = sjedis.hvals(key);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.hvals(key);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1394,9 +2136,12 @@ public class JedisUtil {
 		 */
 		public long hincrby(String key, String fieid, long value) {
 			Jedis jedis = getJedis();
-			long s = jedis.hincrBy(key, fieid, value);
-			returnJedis(jedis);
-			return s;
+			try {
+				long s = jedis.hincrBy(key, fieid, value);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1409,9 +2154,12 @@ public class JedisUtil {
 		public Set<String> hkeys(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			Set<String> set = sjedis.hkeys(key);
-			returnJedis(sjedis);
-			return set;
+			try {
+				Set<String> set = sjedis.hkeys(key);
+				return set;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1424,9 +2172,12 @@ public class JedisUtil {
 		public long hlen(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long len = sjedis.hlen(key);
-			returnJedis(sjedis);
-			return len;
+			try {
+				long len = sjedis.hlen(key);
+				return len;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1441,17 +2192,42 @@ public class JedisUtil {
 		public List<String> hmget(String key, String... fieids) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<String> list = sjedis.hmget(key, fieids);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.hmget(key, fieids);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public List<byte[]> hmget(byte[] key, byte[]... fieids) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<byte[]> list = sjedis.hmget(key, fieids);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<byte[]> list = sjedis.hmget(key, fieids);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
+		}
+
+		/**
+		 * 添加对应关系，如果对应关系已存在，则覆盖
+		 *
+		 * @param Strin
+		 *            key
+		 * @param Map
+		 *            <String,String> 对应关系
+		 * @return 状态，成功返回OK
+		 */
+		public String hmset(String key, Map<String, String> map) {
+			Jedis jedis = getJedis();
+			try {
+				String s = jedis.hmset(key, map);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1463,27 +2239,57 @@ public class JedisUtil {
 		 *            <String,String> 对应关系
 		 * @return 状态，成功返回OK
 		 */
-		public String hmset(String key, Map<String, String> map) {
+		public String hmset(byte[] key, Map<byte[], byte[]> map) {
 			Jedis jedis = getJedis();
-			String s = jedis.hmset(key, map);
-			returnJedis(jedis);
-			return s;
+			try {
+				String s = jedis.hmset(key, map);
+				return s;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
-		 * 添加对应关系，如果对应关系已存在，则覆盖
+		 * 添加对应关系并设置过期时间，在一个事务中完成
 		 *
-		 * @param Strin
+		 * @param String
 		 *            key
+		 * @param int
+		 *            seconds 过期时间，以秒为单位，小于等于0时不设置
 		 * @param Map
 		 *            <String,String> 对应关系
 		 * @return 状态，成功返回OK
 		 */
-		public String hmset(byte[] key, Map<byte[], byte[]> map) {
+		public String hmsetEx(String key, int seconds, Map<String, String> map) {
 			Jedis jedis = getJedis();
-			String s = jedis.hmset(key, map);
-			returnJedis(jedis);
-			return s;
+			try {
+				if (seconds <= 0) {
+					return jedis.hmset(key, map);
+				}
+				Transaction t = jedis.multi();
+				Response<String> s = t.hmset(key, map);
+				t.expire(key, jitterTtl(seconds));
+				t.exec();
+				return s.get();
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		public String hmsetEx(byte[] key, int seconds, Map<byte[], byte[]> map) {
+			Jedis jedis = getJedis();
+			try {
+				if (seconds <= 0) {
+					return jedis.hmset(key, map);
+				}
+				Transaction t = jedis.multi();
+				Response<String> s = t.hmset(key, map);
+				t.expire(key, jitterTtl(seconds));
+				t.exec();
+				return s.get();
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 	}
@@ -1501,16 +2307,22 @@ public class JedisUtil {
 		public String get(String key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			String value = sjedis.get(key);
-			returnJedis(sjedis);
-			return value;
+			try {
+				String value = sjedis.get(key);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public String get(String key, int DBindex) {
 			Jedis sjedis = getJedis(DBindex);
-			String value = sjedis.get(key);
-			returnJedis(sjedis);
-			return value;
+			try {
+				String value = sjedis.get(key);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1523,17 +2335,23 @@ public class JedisUtil {
 		public byte[] get(byte[] key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			byte[] value = sjedis.get(key);
-			returnJedis(sjedis);
-			return value;
+			try {
+				byte[] value = sjedis.get(key);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public byte[] get(byte[] key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			byte[] value = sjedis.get(key);
-			returnJedis(sjedis);
-			return value;
+			try {
+				byte[] value = sjedis.get(key);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1542,19 +2360,25 @@ public class JedisUtil {
 		public Object getObject(byte[] key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			byte[] value = sjedis.get(key);
-			Object o = SerializeUtil.unserizlize(value);
-			returnJedis(sjedis);
-			return o;
+			try {
+				byte[] value = sjedis.get(key);
+				Object o = SerializeUtil.unserizlize(value);
+				return o;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public Object getObject(byte[] key, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			byte[] value = sjedis.get(key);
-			Object o = SerializeUtil.unserizlize(value);
-			returnJedis(sjedis);
-			return o;
+			try {
+				byte[] value = sjedis.get(key);
+				Object o = SerializeUtil.unserizlize(value);
+				return o;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1570,16 +2394,22 @@ public class JedisUtil {
 		 */
 		public String setEx(String key, int seconds, String value) {
 			Jedis jedis = getJedis();
-			String str = jedis.setex(key, seconds, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.setex(key, jitterTtl(seconds), value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String setEx(String key, int seconds, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			String str = jedis.setex(key, seconds, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.setex(key, jitterTtl(seconds), value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1595,16 +2425,22 @@ public class JedisUtil {
 		 */
 		public String setEx(byte[] key, int seconds, byte[] value) {
 			Jedis jedis = getJedis();
-			String str = jedis.setex(key, seconds, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.setex(key, jitterTtl(seconds), value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String setEx(byte[] key, int seconds, byte[] value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			String str = jedis.setex(key, seconds, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.setex(key, jitterTtl(seconds), value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1618,16 +2454,22 @@ public class JedisUtil {
 		 */
 		public long setnx(String key, String value) {
 			Jedis jedis = getJedis();
-			long str = jedis.setnx(key, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				long str = jedis.setnx(key, value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long setnx(String key, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long str = jedis.setnx(key, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				long str = jedis.setnx(key, value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1641,6 +2483,23 @@ public class JedisUtil {
 			return set(SafeEncoder.encode(key), SerializeUtil.serialize(value), DBindex);
 		}
 
+		/**
+		 * 添加一条有过期时间的序列化对象记录，使用一条SETEX完成，seconds小于等于0时不设置过期时间
+		 */
+		public <T extends Serializable> String setObjectEx(String key, int seconds, T value) {
+			if (seconds <= 0) {
+				return setObject(key, value);
+			}
+			return setEx(SafeEncoder.encode(key), seconds, SerializeUtil.serialize(value));
+		}
+
+		public <T extends Serializable> String setObjectEx(String key, int seconds, T value, int DBindex) {
+			if (seconds <= 0) {
+				return setObject(key, value, DBindex);
+			}
+			return setEx(SafeEncoder.encode(key), seconds, SerializeUtil.serialize(value), DBindex);
+		}
+
 		/**
 		 * 添加记录,如果记录已存在将覆盖原有的value
 		 * 
@@ -1686,16 +2545,22 @@ public class JedisUtil {
 		 */
 		public String set(byte[] key, byte[] value) {
 			Jedis jedis = getJedis();
-			String status = jedis.set(key, value);
-			returnJedis(jedis);
-			return status;
+			try {
+				String status = jedis.set(key, value);
+				return status;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String set(byte[] key, byte[] value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			String status = jedis.set(key, value);
-			returnJedis(jedis);
-			return status;
+			try {
+				String status = jedis.set(key, value);
+				return status;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1713,16 +2578,22 @@ public class JedisUtil {
 		 */
 		public long setRange(String key, long offset, String value) {
 			Jedis jedis = getJedis();
-			long len = jedis.setrange(key, offset, value);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.setrange(key, offset, value);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long setRange(String key, long offset, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long len = jedis.setrange(key, offset, value);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.setrange(key, offset, value);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1736,16 +2607,22 @@ public class JedisUtil {
 		 **/
 		public long append(String key, String value) {
 			Jedis jedis = getJedis();
-			long len = jedis.append(key, value);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.append(key, value);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long append(String key, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long len = jedis.append(key, value);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.append(key, value);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1759,16 +2636,22 @@ public class JedisUtil {
 		 */
 		public long decrBy(String key, long number) {
 			Jedis jedis = getJedis();
-			long len = jedis.decrBy(key, number);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.decrBy(key, number);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long decrBy(String key, long number, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long len = jedis.decrBy(key, number);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.decrBy(key, number);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1783,16 +2666,22 @@ public class JedisUtil {
 		 */
 		public long incrBy(String key, long number) {
 			Jedis jedis = getJedis();
-			long len = jedis.incrBy(key, number);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.incrBy(key, number);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long incrBy(String key, long number, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long len = jedis.incrBy(key, number);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.incrBy(key, number);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1809,16 +2698,22 @@ public class JedisUtil {
 		public String getrange(String key, long startOffset, long endOffset) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			String value = sjedis.getrange(key, startOffset, endOffset);
-			returnJedis(sjedis);
-			return value;
+			try {
+				String value = sjedis.getrange(key, startOffset, endOffset);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		public String getrange(String key, long startOffset, long endOffset, int DBindex) {
 			Jedis sjedis = getJedis(DBindex);
-			String value = sjedis.getrange(key, startOffset, endOffset);
-			returnJedis(sjedis);
-			return value;
+			try {
+				String value = sjedis.getrange(key, startOffset, endOffset);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1833,16 +2728,22 @@ public class JedisUtil {
 		 */
 		public String getSet(String key, String value) {
 			Jedis jedis = getJedis();
-			String str = jedis.getSet(key, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.getSet(key, value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String getSet(String key, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			String str = jedis.getSet(key, value);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.getSet(key, value);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1854,16 +2755,22 @@ public class JedisUtil {
 		 */
 		public List<String> mget(String... keys) {
 			Jedis jedis = getJedis();
-			List<String> str = jedis.mget(keys);
-			returnJedis(jedis);
-			return str;
+			try {
+				List<String> str = jedis.mget(keys);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public List<String> mget(int DBindex, String... keys) {
 			Jedis jedis = getJedis(DBindex);
-			List<String> str = jedis.mget(keys);
-			returnJedis(jedis);
-			return str;
+			try {
+				List<String> str = jedis.mget(keys);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1875,16 +2782,22 @@ public class JedisUtil {
 		 */
 		public String mset(String... keysvalues) {
 			Jedis jedis = getJedis();
-			String str = jedis.mset(keysvalues);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.mset(keysvalues);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public String mset(int DBindex, String... keysvalues) {
 			Jedis jedis = getJedis(DBindex);
-			String str = jedis.mset(keysvalues);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.mset(keysvalues);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -1896,16 +2809,22 @@ public class JedisUtil {
 		 */
 		public long strlen(String key) {
 			Jedis jedis = getJedis();
-			long len = jedis.strlen(key);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.strlen(key);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		public long strlen(String key, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long len = jedis.strlen(key);
-			returnJedis(jedis);
-			return len;
+			try {
+				long len = jedis.strlen(key);
+				return len;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 	}
 
@@ -1933,9 +2852,12 @@ public class JedisUtil {
 		public long llen(byte[] key) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			long count = sjedis.llen(key);
-			returnJedis(sjedis);
-			return count;
+			try {
+				long count = sjedis.llen(key);
+				return count;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -1951,9 +2873,12 @@ public class JedisUtil {
 		 */
 		public String lset(byte[] key, int index, byte[] value) {
 			Jedis jedis = getJedis();
-			String status = jedis.lset(key, index, value);
-			returnJedis(jedis);
-			return status;
+			try {
+				String status = jedis.lset(key, index, value);
+				return status;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2001,9 +2926,12 @@ public class JedisUtil {
 		 */
 		public long linsert(byte[] key, LIST_POSITION where, byte[] pivot, byte[] value) {
 			Jedis jedis = getJedis();
-			long count = jedis.linsert(key, where, pivot, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.linsert(key, where, pivot, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2031,9 +2959,12 @@ public class JedisUtil {
 		public byte[] lindex(byte[] key, int index) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			byte[] value = sjedis.lindex(key, index);
-			returnJedis(sjedis);
-			return value;
+			try {
+				byte[] value = sjedis.lindex(key, index);
+				return value;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -2056,9 +2987,12 @@ public class JedisUtil {
 		 */
 		public byte[] lpop(byte[] key) {
 			Jedis jedis = getJedis();
-			byte[] value = jedis.lpop(key);
-			returnJedis(jedis);
-			return value;
+			try {
+				byte[] value = jedis.lpop(key);
+				return value;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2070,9 +3004,12 @@ public class JedisUtil {
 		 */
 		public String rpop(String key) {
 			Jedis jedis = getJedis();
-			String value = jedis.rpop(key);
-			returnJedis(jedis);
-			return value;
+			try {
+				String value = jedis.rpop(key);
+				return value;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2099,9 +3036,12 @@ public class JedisUtil {
 		 */
 		public long rpush(String key, String value) {
 			Jedis jedis = getJedis();
-			long count = jedis.rpush(key, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.rpush(key, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2115,9 +3055,39 @@ public class JedisUtil {
 		 */
 		public long rpush(String key, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long count = jedis.rpush(key, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.rpush(key, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 向List追加记录并设置过期时间，在一个事务中完成
+		 *
+		 * @param String
+		 *            key
+		 * @param int
+		 *            seconds 过期时间，以秒为单位，小于等于0时不设置
+		 * @param String
+		 *            ... values
+		 * @return 记录总数
+		 */
+		public long rpushEx(String key, int seconds, String... values) {
+			Jedis jedis = getJedis();
+			try {
+				if (seconds <= 0) {
+					return jedis.rpush(key, values);
+				}
+				Transaction t = jedis.multi();
+				Response<Long> count = t.rpush(key, values);
+				t.expire(key, jitterTtl(seconds));
+				t.exec();
+				return count.get();
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2131,9 +3101,12 @@ public class JedisUtil {
 		 */
 		public long lpush(String key, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long count = jedis.lpush(SafeEncoder.encode(key), SafeEncoder.encode(value));
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.lpush(SafeEncoder.encode(key), SafeEncoder.encode(value));
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2147,9 +3120,12 @@ public class JedisUtil {
 		 */
 		public long rpush(byte[] key, byte[] value) {
 			Jedis jedis = getJedis();
-			long count = jedis.rpush(key, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.rpush(key, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2163,9 +3139,118 @@ public class JedisUtil {
 		 */
 		public long lpush(byte[] key, byte[] value) {
 			Jedis jedis = getJedis();
-			long count = jedis.lpush(key, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.lpush(key, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 向List头部批量追加记录，一条LPUSH命令完成
+		 * 
+		 * @param String
+		 *            key
+		 * @param String
+		 *            ... values
+		 * @return 记录总数
+		 */
+		public long lpush(String key, String... values) {
+			Jedis jedis = getJedis();
+			try {
+				return jedis.lpush(key, values);
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		public long lpush(byte[] key, byte[]... values) {
+			Jedis jedis = getJedis();
+			try {
+				return jedis.lpush(key, values);
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 向List尾部批量追加记录，一条RPUSH命令完成
+		 * 
+		 * @param String
+		 *            key
+		 * @param String
+		 *            ... values
+		 * @return 记录总数
+		 */
+		public long rpush(String key, String... values) {
+			Jedis jedis = getJedis();
+			try {
+				return jedis.rpush(key, values);
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		public long rpush(byte[] key, byte[]... values) {
+			Jedis jedis = getJedis();
+			try {
+				return jedis.rpush(key, values);
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 从List头部原子地移出最多count条记录，通过MULTI中的LRANGE+LTRIM完成
+		 * 
+		 * @param String
+		 *            key
+		 * @param int
+		 *            count 最多移出的条数
+		 * @return 移出的记录，按出队顺序排列，List为空时返回空集合
+		 */
+		public List<String> lpop(String key, int count) {
+			if (count <= 0) {
+				return new ArrayList<String>(0);
+			}
+			Jedis jedis = getJedis();
+			try {
+				Transaction t = jedis.multi();
+				Response<List<String>> items = t.lrange(key, 0, count - 1);
+				t.ltrim(key, count, -1);
+				t.exec();
+				return items.get();
+			} finally {
+				returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 从List尾部原子地移出最多count条记录，通过MULTI中的LRANGE+LTRIM完成
+		 * 
+		 * @param String
+		 *            key
+		 * @param int
+		 *            count 最多移出的条数
+		 * @return 移出的记录，按出队顺序排列(即最后一条在最前)，List为空时返回空集合
+		 */
+		public List<String> rpop(String key, int count) {
+			if (count <= 0) {
+				return new ArrayList<String>(0);
+			}
+			Jedis jedis = getJedis();
+			try {
+				Transaction t = jedis.multi();
+				Response<List<String>> items = t.lrange(key, -count, -1);
+				t.ltrim(key, 0, -count - 1);
+				t.exec();
+				List<String> list = new ArrayList<String>(items.get());
+				Collections.reverse(list);
+				return list;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2182,9 +3267,12 @@ public class JedisUtil {
 		public List<String> lrange(String key, long start, long end) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<String> list = sjedis.lrange(key, start, end);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.lrange(key, start, end);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -2201,9 +3289,12 @@ public class JedisUtil {
 		public List<String> lrange(String key, long start, long end, int DBindex) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis(DBindex);
-			List<String> list = sjedis.lrange(key, start, end);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<String> list = sjedis.lrange(key, start, end);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
 		}
 
 		/**
@@ -2220,9 +3311,58 @@ public class JedisUtil {
 		public List<byte[]> lrange(byte[] key, int start, int end) {
 			// ShardedJedis sjedis = getShardedJedis();
 			Jedis sjedis = getJedis();
-			List<byte[]> list = sjedis.lrange(key, start, end);
-			returnJedis(sjedis);
-			return list;
+			try {
+				List<byte[]> list = sjedis.lrange(key, start, end);
+				return list;
+			} finally {
+				returnJedis(sjedis);
+			}
+		}
+
+		/**
+		 * 分页遍历List，每次next()通过一条LRANGE获取一页，适合遍历很长的List</br>
+		 * 遍历期间List被修改时，结果可能重复或遗漏
+		 * 
+		 * @param String
+		 *            key
+		 * @param int
+		 *            pageSize 每页条数
+		 * @return 按页返回记录的迭代器
+		 */
+		public Iterator<List<String>> lrangePages(final String key, final int pageSize) {
+			if (pageSize <= 0) {
+				throw new IllegalArgumentException("pageSize must be positive");
+			}
+			return new Iterator<List<String>>() {
+				private long start = 0;
+				private List<String> next = fetch();
+
+				private List<String> fetch() {
+					List<String> page = lrange(key, start, start + pageSize - 1);
+					start += page.size();
+					return page;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return !next.isEmpty();
+				}
+
+				@Override
+				public List<String> next() {
+					if (next.isEmpty()) {
+						throw new NoSuchElementException();
+					}
+					List<String> page = next;
+					next = page.size() < pageSize ? Collections.<String> emptyList() : fetch();
+					return page;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
 		}
 
 		/**
@@ -2238,9 +3378,12 @@ public class JedisUtil {
 		 */
 		public long lrem(byte[] key, int c, byte[] value) {
 			Jedis jedis = getJedis();
-			long count = jedis.lrem(key, c, value);
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.lrem(key, c, value);
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2271,9 +3414,12 @@ public class JedisUtil {
 		 */
 		public long lrem(String key, int c, String value, int DBindex) {
 			Jedis jedis = getJedis(DBindex);
-			long count = jedis.lrem(SafeEncoder.encode(key), c, SafeEncoder.encode(value));
-			returnJedis(jedis);
-			return count;
+			try {
+				long count = jedis.lrem(SafeEncoder.encode(key), c, SafeEncoder.encode(value));
+				return count;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -2289,9 +3435,12 @@ public class JedisUtil {
 		 */
 		public String ltrim(byte[] key, int start, int end) {
 			Jedis jedis = getJedis();
-			String str = jedis.ltrim(key, start, end);
-			returnJedis(jedis);
-			return str;
+			try {
+				String str = jedis.ltrim(key, start, end);
+				return str;
+			} finally {
+				returnJedis(jedis);
+			}
 		}
 
 		/**
@@ -0,0 +1,337 @@
+package org.wuzl.util.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * key快照的导出与导入</br>
+ * <ul>
+ * <li>导出：按pattern SCAN，每批key通过pipeline执行DUMP和PTTL，写入紧凑的二进制文件</li>
+ * <li>导入：一个线程顺序读取文件，多个worker各自持有一个连接，通过pipeline批量RESTORE，吞吐随连接数增加</li>
+ * </ul>
+ * 文件格式：魔数，然后是若干条记录(key长度,key,剩余毫秒数,dump长度,dump)，以key长度-1结束</br>
+ * 导入时使用的是导出时刻的剩余过期时间；导入时连接异常的批次计为失败，导入结束后抛出异常
+ *
+ * @author ziliang.wu
+ */
+public class KeyspaceSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyspaceSnapshot.class);
+
+	private static final byte[] MAGIC = SafeEncoder.encode("WZLSNAP1");
+
+	private static final List<Record> POISON = new ArrayList<Record>(0);
+
+	private final JedisUtil jedisUtil;
+
+	/**
+	 * 每次SCAN的count，同时也是导出时一个pipeline的大小
+	 */
+	private int scanCount = 1000;
+	/**
+	 * 导入时一个pipeline中的RESTORE条数
+	 */
+	private int restoreBatch = 500;
+
+	public KeyspaceSnapshot() {
+		this.jedisUtil = JedisUtil.getInstance();
+	}
+
+	/**
+	 * 导出匹配pattern的key
+	 *
+	 * @param pattern
+	 *            key的表达式,*表示多个，？表示一个
+	 * @param file
+	 *            快照文件
+	 * @return 导出的key数量
+	 * @throws IOException
+	 */
+	public long export(String pattern, File file) throws IOException {
+		long start = System.currentTimeMillis();
+		long count = 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			writeHeader(out);
+			ScanParams params = new ScanParams().match(pattern).count(scanCount);
+			byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+			do {
+				ScanResult<byte[]> result = jedis.scan(cursor, params);
+				cursor = result.getCursorAsBytes();
+				List<byte[]> keys = result.getResult();
+				if (keys.isEmpty()) {
+					continue;
+				}
+				Pipeline pipeline = jedis.pipelined();
+				List<Response<byte[]>> dumps = new ArrayList<Response<byte[]>>(keys.size());
+				List<Response<Long>> ttls = new ArrayList<Response<Long>>(keys.size());
+				for (byte[] key : keys) {
+					dumps.add(pipeline.dump(key));
+					ttls.add(pipeline.pttl(key));
+				}
+				pipeline.sync();
+				for (int i = 0; i < keys.size(); i++) {
+					byte[] dump = dumps.get(i).get();
+					long ttl = ttls.get(i).get();
+					// 扫描过程中已被删除或过期
+					if (dump == null || ttl == -2) {
+						continue;
+					}
+					writeRecord(out, new Record(keys.get(i), ttl, dump));
+					count++;
+				}
+			} while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+			out.writeInt(-1);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+			out.close();
+		}
+		logger.info("snapshot export finished,pattern:{},keys:{},elapsed:{}ms", pattern, count,
+				System.currentTimeMillis() - start);
+		return count;
+	}
+
+	/**
+	 * 从快照文件导入
+	 *
+	 * @param file
+	 *            快照文件
+	 * @param workers
+	 *            并行的连接数，不能超过连接池大小
+	 * @param replace
+	 *            key已存在时是否覆盖，不覆盖时计为失败
+	 * @return 导入成功的key数量
+	 * @throws IOException
+	 *             读取文件失败，或有批次因连接异常未能导入
+	 */
+	public long restore(File file, int workers, final boolean replace) throws IOException {
+		long start = System.currentTimeMillis();
+		final BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<List<Record>>(workers * 2);
+		final AtomicLong restored = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+		final CountDownLatch done = new CountDownLatch(workers);
+		for (int i = 0; i < workers; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						restoreLoop(queue, replace, restored, failed, error);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "redis-snapshot-restore-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+		try {
+			readHeader(in, file);
+			List<Record> batch = new ArrayList<Record>(restoreBatch);
+			Record record;
+			while ((record = readRecord(in)) != null) {
+				batch.add(record);
+				if (batch.size() >= restoreBatch) {
+					put(queue, batch, done);
+					batch = new ArrayList<Record>(restoreBatch);
+				}
+			}
+			if (!batch.isEmpty()) {
+				put(queue, batch, done);
+			}
+		} finally {
+			try {
+				in.close();
+			} finally {
+				stopWorkers(queue, workers, done);
+			}
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		logger.info("snapshot restore finished,file:{},workers:{},restored:{},failed:{},elapsed:{}ms,throughput:{}/s",
+				file, workers, restored.get(), failed.get(), elapsed, restored.get() * 1000 / elapsed);
+		if (error.get() != null) {
+			throw new IOException("snapshot restore incomplete,restored:" + restored.get() + ",failed:" + failed.get(),
+					error.get());
+		}
+		return restored.get();
+	}
+
+	private void restoreLoop(BlockingQueue<List<Record>> queue, boolean replace, AtomicLong restored,
+			AtomicLong failed, AtomicReference<RuntimeException> error) {
+		Jedis jedis = null;
+		try {
+			List<Record> batch;
+			while ((batch = queue.take()) != POISON) {
+				try {
+					if (jedis == null) {
+						jedis = jedisUtil.getJedis();
+					}
+					restoreBatch(jedis, batch, replace, restored, failed);
+				} catch (RuntimeException e) {
+					// 整批计为失败，归还损坏的连接，下一批重新借用
+					failed.addAndGet(batch.size());
+					error.compareAndSet(null, e);
+					logger.error("restore batch error,keys:" + batch.size(), e);
+					if (jedis != null) {
+						jedisUtil.returnJedis(jedis);
+						jedis = null;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (jedis != null) {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+	}
+
+	private void restoreBatch(Jedis jedis, List<Record> batch, boolean replace, AtomicLong restored,
+			AtomicLong failed) {
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<String>> responses = new ArrayList<Response<String>>(batch.size());
+		for (Record record : batch) {
+			if (replace) {
+				pipeline.del(record.key);
+			}
+			responses.add(pipeline.restore(record.key, restoreTtl(record.ttl), record.dump));
+		}
+		pipeline.sync();
+		for (int i = 0; i < responses.size(); i++) {
+			try {
+				responses.get(i).get();
+				restored.incrementAndGet();
+			} catch (JedisDataException e) {
+				if (failed.incrementAndGet() <= 10) {
+					logger.warn("restore key error,key:{},error:{}", SafeEncoder.encode(batch.get(i).key),
+							e.getMessage());
+				}
+			}
+		}
+	}
+
+	static void writeRecord(DataOutputStream out, Record record) throws IOException {
+		out.writeInt(record.key.length);
+		out.write(record.key);
+		out.writeLong(record.ttl);
+		out.writeInt(record.dump.length);
+		out.write(record.dump);
+	}
+
+	/**
+	 * @return 读到结束标记时返回null
+	 */
+	static Record readRecord(DataInputStream in) throws IOException {
+		int keyLength = in.readInt();
+		if (keyLength < 0) {
+			return null;
+		}
+		byte[] key = new byte[keyLength];
+		in.readFully(key);
+		long ttl = in.readLong();
+		byte[] dump = new byte[in.readInt()];
+		in.readFully(dump);
+		return new Record(key, ttl, dump);
+	}
+
+	static void writeHeader(DataOutputStream out) throws IOException {
+		out.write(MAGIC);
+	}
+
+	static void readHeader(DataInputStream in, File file) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("not a snapshot file:" + file);
+		}
+	}
+
+	/**
+	 * PTTL为-1表示没有过期时间，RESTORE中用0表示
+	 */
+	static int restoreTtl(long pttl) {
+		return pttl > 0 ? (int) Math.min(pttl, Integer.MAX_VALUE) : 0;
+	}
+
+	private static void put(BlockingQueue<List<Record>> queue, List<Record> batch, CountDownLatch done) {
+		try {
+			while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+				// worker全部异常退出时不再等待
+				if (done.getCount() == 0) {
+					throw new IllegalStateException("all restore workers exited");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while restoring snapshot", e);
+		}
+	}
+
+	/**
+	 * 通知worker结束，worker已全部退出时不再等待
+	 */
+	private static void stopWorkers(BlockingQueue<List<Record>> queue, int workers, CountDownLatch done) {
+		try {
+			for (int i = 0; i < workers; i++) {
+				put(queue, POISON, done);
+			}
+		} catch (IllegalStateException e) {
+			logger.warn("stop restore workers error:{}", e.getMessage());
+		}
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public void setRestoreBatch(int restoreBatch) {
+		this.restoreBatch = restoreBatch;
+	}
+
+	static class Record {
+		final byte[] key;
+		final long ttl;
+		final byte[] dump;
+
+		Record(byte[] key, long ttl, byte[] dump) {
+			this.key = key;
+			this.ttl = ttl;
+			this.dump = dump;
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package org.wuzl.util.redis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 大value存储</br>
+ * <ul>
+ * <li>超过阈值的value按固定大小切分为多个chunk，分别存储在派生key下，原key只保存一个很小的manifest</li>
+ * <li>每个chunk单独写入，避免一条巨大的SET命令长时间阻塞redis</li>
+ * <li>读取时通过pipeline批量MGET所有chunk，直接拷贝到一次分配好的数组中；读取期间manifest被替换导致chunk缺失时重新读取</li>
+ * <li>过期时间和删除通过WATCH/MULTI/EXEC同时作用在manifest和全部chunk上</li>
+ * </ul>
+ * 未超过阈值的value按原样存储，读取时对调用方透明
+ *
+ * @author ziliang.wu
+ */
+public class LargeValueStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(LargeValueStore.class);
+
+	/**
+	 * 默认切分阈值 512K
+	 */
+	public static final int DEFAULT_THRESHOLD = 512 * 1024;
+	/**
+	 * 默认chunk大小 256K
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+	/**
+	 * 默认每条MGET读取的chunk个数
+	 */
+	public static final int DEFAULT_MGET_BATCH = 8;
+
+	private static final byte[] MAGIC = new byte[] { 0, 'W', 'Z', 'L', 'C', 'H', 'K', 1 };
+
+	private static final int MANIFEST_LENGTH = MAGIC.length + 8 + 4 + 4 + 4;
+
+	private static final int MAX_WATCH_RETRY = 3;
+
+	/**
+	 * 写入新value并返回旧的manifest(如果旧value是分块存储的)，保证manifest的切换是原子的
+	 */
+	private static final RedisScript SWAP_SCRIPT = new RedisScript(
+			"local old = redis.call('GET', KEYS[1]) "
+					+ "if tonumber(ARGV[2]) > 0 then redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]) "
+					+ "else redis.call('SET', KEYS[1], ARGV[1]) end "
+					+ "if old and string.len(old) == tonumber(ARGV[4]) and string.sub(old, 1, string.len(ARGV[3])) == ARGV[3] then return old end "
+					+ "return false");
+
+	private final JedisUtil jedisUtil;
+
+	private final int threshold;
+
+	private final int chunkSize;
+
+	private final int mgetBatch;
+
+	public LargeValueStore() {
+		this(DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE, DEFAULT_MGET_BATCH);
+	}
+
+	/**
+	 * @param threshold
+	 *            超过该字节数的value才会被切分
+	 * @param chunkSize
+	 *            每个chunk的字节数
+	 * @param mgetBatch
+	 *            读取时每条MGET包含的chunk个数
+	 */
+	public LargeValueStore(int threshold, int chunkSize, int mgetBatch) {
+		if (chunkSize <= 0 || threshold < chunkSize || mgetBatch <= 0) {
+			throw new IllegalArgumentException("illegal chunk config,threshold:" + threshold + ",chunkSize:" + chunkSize
+					+ ",mgetBatch:" + mgetBatch);
+		}
+		this.jedisUtil = JedisUtil.getInstance();
+		this.threshold = threshold;
+		this.chunkSize = chunkSize;
+		this.mgetBatch = mgetBatch;
+	}
+
+	/**
+	 * 添加记录,如果记录已存在将覆盖原有的value
+	 *
+	 * @param String
+	 *            key
+	 * @param byte[]
+	 *            value
+	 * @return 状态码
+	 */
+	public String set(String key, byte[] value) {
+		return setEx(SafeEncoder.encode(key), 0, value);
+	}
+
+	public String set(byte[] key, byte[] value) {
+		return setEx(key, 0, value);
+	}
+
+	public String setEx(String key, int seconds, byte[] value) {
+		return setEx(SafeEncoder.encode(key), seconds, value);
+	}
+
+	/**
+	 * 添加有过期时间的记录，seconds小于等于0表示不过期
+	 *
+	 * @param byte[]
+	 *            key
+	 * @param int
+	 *            seconds 过期时间，以秒为单位
+	 * @param byte[]
+	 *            value
+	 * @return 状态码
+	 */
+	public String setEx(byte[] key, int seconds, byte[] value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value can not be null");
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			byte[] stored = value;
+			if (value.length > threshold) {
+				int chunkCount = (value.length + chunkSize - 1) / chunkSize;
+				Manifest manifest = new Manifest(ThreadLocalRandom.current().nextLong(), value.length, chunkSize,
+						chunkCount);
+				writeChunks(jedis, key, manifest, seconds, value);
+				stored = encodeManifest(manifest);
+			}
+			byte[] old = swap(jedis, key, stored, seconds);
+			if (old != null) {
+				deleteChunks(jedis, key, decodeManifest(old));
+			}
+			return "OK";
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public byte[] get(String key) {
+		return get(SafeEncoder.encode(key));
+	}
+
+	/**
+	 * 根据key获取记录，分块存储的value会被重新组装
+	 *
+	 * @param byte[]
+	 *            key
+	 * @return 值，chunk缺失(例如已过期)时返回null
+	 */
+	public byte[] get(byte[] key) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			byte[] value = jedis.get(key);
+			for (int i = 0; i < MAX_WATCH_RETRY; i++) {
+				if (!isManifest(value)) {
+					return value;
+				}
+				byte[] result = readChunks(jedis, key, decodeManifest(value));
+				if (result != null) {
+					return result;
+				}
+				// 写入新value时先切换manifest再删除旧chunk，manifest变化说明读到的是被替换的旧chunk
+				byte[] current = jedis.get(key);
+				if (Arrays.equals(current, value)) {
+					logger.warn("large value chunk missing or broken,key:{}", SafeEncoder.encode(key));
+					return null;
+				}
+				value = current;
+			}
+			throw new IllegalStateException("get large value conflict,key:" + SafeEncoder.encode(key));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long expire(String key, int seconds) {
+		return expire(SafeEncoder.encode(key), seconds);
+	}
+
+	/**
+	 * 设置key的过期时间，同时作用于全部chunk
+	 *
+	 * @param byte[]
+	 *            key
+	 * @param int
+	 *            seconds 过期时间，以秒为单位
+	 * @return 影响的记录数(只统计原key)
+	 */
+	public long expire(byte[] key, int seconds) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			for (int i = 0; i < MAX_WATCH_RETRY; i++) {
+				jedis.watch(key);
+				byte[] value = jedis.get(key);
+				if (!isManifest(value)) {
+					jedis.unwatch();
+					return jedis.expire(key, seconds);
+				}
+				List<byte[]> chunkKeys = chunkKeys(key, decodeManifest(value));
+				Transaction t = jedis.multi();
+				Response<Long> count = t.expire(key, seconds);
+				for (byte[] chunkKey : chunkKeys) {
+					t.expire(chunkKey, seconds);
+				}
+				List<Object> result = t.exec();
+				if (result != null && !result.isEmpty()) {
+					return count.get();
+				}
+			}
+			throw new IllegalStateException("expire large value conflict,key:" + SafeEncoder.encode(key));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long del(String key) {
+		return del(SafeEncoder.encode(key));
+	}
+
+	/**
+	 * 删除key及其全部chunk
+	 *
+	 * @param byte[]
+	 *            key
+	 * @return 删除的记录数(只统计原key)
+	 */
+	public long del(byte[] key) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			for (int i = 0; i < MAX_WATCH_RETRY; i++) {
+				jedis.watch(key);
+				byte[] value = jedis.get(key);
+				if (!isManifest(value)) {
+					jedis.unwatch();
+					return jedis.del(key);
+				}
+				List<byte[]> keys = chunkKeys(key, decodeManifest(value));
+				keys.add(0, key);
+				Transaction t = jedis.multi();
+				t.del(keys.toArray(new byte[keys.size()][]));
+				List<Object> result = t.exec();
+				if (result != null && !result.isEmpty()) {
+					return 1;
+				}
+			}
+			throw new IllegalStateException("del large value conflict,key:" + SafeEncoder.encode(key));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private void writeChunks(Jedis jedis, byte[] key, Manifest manifest, int seconds, byte[] value) {
+		List<byte[]> keys = chunkKeys(key, manifest);
+		Pipeline pipeline = jedis.pipelined();
+		for (int i = 0; i < manifest.chunkCount; i++) {
+			int from = i * manifest.chunkSize;
+			byte[] chunk = Arrays.copyOfRange(value, from, Math.min(from + manifest.chunkSize, value.length));
+			if (seconds > 0) {
+				pipeline.setex(keys.get(i), seconds, chunk);
+			} else {
+				pipeline.set(keys.get(i), chunk);
+			}
+		}
+		pipeline.sync();
+	}
+
+	/**
+	 * @return chunk缺失或长度不一致时返回null
+	 */
+	private byte[] readChunks(Jedis jedis, byte[] key, Manifest manifest) {
+		List<byte[]> keys = chunkKeys(key, manifest);
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<List<byte[]>>> responses = new ArrayList<Response<List<byte[]>>>();
+		for (int from = 0; from < keys.size(); from += mgetBatch) {
+			List<byte[]> batch = keys.subList(from, Math.min(from + mgetBatch, keys.size()));
+			responses.add(pipeline.mget(batch.toArray(new byte[batch.size()][])));
+		}
+		pipeline.sync();
+
+		byte[] value = new byte[manifest.totalLength];
+		int offset = 0;
+		for (Response<List<byte[]>> response : responses) {
+			for (byte[] chunk : response.get()) {
+				if (chunk == null || offset + chunk.length > value.length) {
+					return null;
+				}
+				System.arraycopy(chunk, 0, value, offset, chunk.length);
+				offset += chunk.length;
+			}
+		}
+		if (offset != value.length) {
+			return null;
+		}
+		return value;
+	}
+
+	private byte[] swap(Jedis jedis, byte[] key, byte[] value, int seconds) {
+		List<byte[]> args = new ArrayList<byte[]>(4);
+		args.add(value);
+		args.add(SafeEncoder.encode(String.valueOf(Math.max(seconds, 0))));
+		args.add(MAGIC);
+		args.add(SafeEncoder.encode(String.valueOf(MANIFEST_LENGTH)));
+		return (byte[]) SWAP_SCRIPT.eval(jedis, Arrays.asList(key), args);
+	}
+
+	private void deleteChunks(Jedis jedis, byte[] key, Manifest manifest) {
+		List<byte[]> keys = chunkKeys(key, manifest);
+		jedis.del(keys.toArray(new byte[keys.size()][]));
+	}
+
+	static List<byte[]> chunkKeys(byte[] key, Manifest manifest) {
+		byte[] infix = SafeEncoder.encode(":chunk:" + Long.toHexString(manifest.generation) + ":");
+		List<byte[]> keys = new ArrayList<byte[]>(manifest.chunkCount + 1);
+		for (int i = 0; i < manifest.chunkCount; i++) {
+			byte[] index = SafeEncoder.encode(String.valueOf(i));
+			byte[] chunkKey = new byte[key.length + infix.length + index.length];
+			System.arraycopy(key, 0, chunkKey, 0, key.length);
+			System.arraycopy(infix, 0, chunkKey, key.length, infix.length);
+			System.arraycopy(index, 0, chunkKey, key.length + infix.length, index.length);
+			keys.add(chunkKey);
+		}
+		return keys;
+	}
+
+	static boolean isManifest(byte[] value) {
+		if (value == null || value.length != MANIFEST_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (value[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static byte[] encodeManifest(Manifest manifest) {
+		return ByteBuffer.allocate(MANIFEST_LENGTH).put(MAGIC).putLong(manifest.generation)
+				.putInt(manifest.totalLength).putInt(manifest.chunkSize).putInt(manifest.chunkCount).array();
+	}
+
+	static Manifest decodeManifest(byte[] value) {
+		ByteBuffer buffer = ByteBuffer.wrap(value, MAGIC.length, value.length - MAGIC.length);
+		return new Manifest(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+	}
+
+	/**
+	 * 分块存储的描述信息
+	 */
+	static class Manifest {
+		final long generation;
+		final int totalLength;
+		final int chunkSize;
+		final int chunkCount;
+
+		Manifest(long generation, int totalLength, int chunkSize, int chunkCount) {
+			this.generation = generation;
+			this.totalLength = totalLength;
+			this.chunkSize = chunkSize;
+			this.chunkCount = chunkCount;
+		}
+	}
+}
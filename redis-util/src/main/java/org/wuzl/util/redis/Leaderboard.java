@@ -0,0 +1,519 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 排行榜</br>
+ * <ul>
+ * <li>分数增量先在本地合并，后台按固定间隔通过脚本批量ZINCRBY写入，每批带唯一id，失败重试时不会重复累加</li>
+ * <li>top-K和排名附近的查询优先使用本地快照，快照由后台线程定期刷新</li>
+ * <li>成员数量很大时可以按member的hash分片到多个SortSet，查询时合并各分片的结果</li>
+ * </ul>
+ * 排名从0开始，按分数从高到低；同分成员的排名按严格大于该分数的成员数计算
+ *
+ * @author ziliang.wu
+ */
+public class Leaderboard {
+
+	private static final Logger logger = LoggerFactory.getLogger(Leaderboard.class);
+
+	private static final BiFunction<Double, Double, Double> SUM = new BiFunction<Double, Double, Double>() {
+		@Override
+		public Double apply(Double a, Double b) {
+			return a + b;
+		}
+	};
+
+	/**
+	 * 批次标记不存在时写入标记并执行该批的ZINCRBY，已存在说明该批已经写入过
+	 */
+	private static final RedisScript FLUSH_SCRIPT = new RedisScript(
+			"if not redis.call('SET', KEYS[1], '1', 'NX', 'EX', ARGV[1]) then return 0 end "
+					+ "for i = 2, #ARGV, 3 do "
+					+ "redis.call('ZINCRBY', KEYS[tonumber(ARGV[i]) + 2], ARGV[i + 1], ARGV[i + 2]) end "
+					+ "return 1");
+
+	/**
+	 * 批次标记的过期时间，秒，需要长于失败重试的最长间隔
+	 */
+	private static final int BATCH_MARK_SECONDS = 86400;
+
+	private static final Comparator<Entry> DESC = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			int c = Double.compare(b.score, a.score);
+			return c != 0 ? c : b.member.compareTo(a.member);
+		}
+	};
+
+	private final JedisUtil jedisUtil;
+
+	private final String key;
+
+	private final String[] shardKeys;
+
+	/**
+	 * 本地快照保留的条数
+	 */
+	private int snapshotSize = 1000;
+	/**
+	 * 增量刷新到redis的间隔，毫秒
+	 */
+	private long flushIntervalMillis = 200;
+	/**
+	 * 快照刷新间隔，毫秒
+	 */
+	private long snapshotIntervalMillis = 1000;
+
+	private final ConcurrentHashMap<String, Double> pending = new ConcurrentHashMap<String, Double>();
+
+	private volatile Snapshot snapshot = new Snapshot(new ArrayList<Entry>(0));
+
+	private volatile ScheduledExecutorService scheduler;
+
+	/**
+	 * 写入失败的批次，下次flush时用同一个id重试
+	 */
+	private Batch failed;
+
+	public Leaderboard(String key) {
+		this(key, 1);
+	}
+
+	/**
+	 * @param key
+	 *            排行榜的key
+	 * @param shards
+	 *            分片数，大于1时实际的key为key:0 ~ key:(shards-1)
+	 */
+	public Leaderboard(String key, int shards) {
+		if (shards <= 0) {
+			throw new IllegalArgumentException("shards must be positive");
+		}
+		this.jedisUtil = JedisUtil.getInstance();
+		this.key = key;
+		this.shardKeys = new String[shards];
+		for (int i = 0; i < shards; i++) {
+			shardKeys[i] = shards == 1 ? key : key + ":" + i;
+		}
+	}
+
+	/**
+	 * 增加分数，只在本地合并，由后台线程或{@link #flush()}写入redis
+	 *
+	 * @param member
+	 * @param delta
+	 *            要增加的分数，可以是负数
+	 */
+	public void incr(String member, double delta) {
+		pending.merge(member, delta, SUM);
+	}
+
+	/**
+	 * 把本地合并的增量写入redis</br>
+	 * 写入失败(包括读取响应超时等无法确定是否已执行的情况)时保留该批次，下次flush先用同一个id重试，
+	 * redis中已有该批次的标记时不再重复累加
+	 *
+	 * @return 写入的成员数
+	 */
+	public synchronized int flush() {
+		int count = 0;
+		if (failed != null) {
+			apply(failed);
+			count += failed.deltas.size();
+			failed = null;
+		}
+		if (pending.isEmpty()) {
+			return count;
+		}
+		Batch batch = new Batch(key + ":flush:" + UUID.randomUUID());
+		for (String member : pending.keySet()) {
+			// 逐个remove，并发的incr会落到新的entry中，不会丢失
+			Double delta = pending.remove(member);
+			if (delta != null) {
+				batch.deltas.put(member, delta);
+			}
+		}
+		try {
+			apply(batch);
+		} catch (RuntimeException e) {
+			failed = batch;
+			throw e;
+		}
+		return count + batch.deltas.size();
+	}
+
+	private void apply(Batch batch) {
+		List<byte[]> keys = new ArrayList<byte[]>(shardKeys.length + 1);
+		keys.add(SafeEncoder.encode(batch.id));
+		for (String shardKey : shardKeys) {
+			keys.add(SafeEncoder.encode(shardKey));
+		}
+		List<byte[]> args = new ArrayList<byte[]>(batch.deltas.size() * 3 + 1);
+		args.add(SafeEncoder.encode(String.valueOf(BATCH_MARK_SECONDS)));
+		for (Map.Entry<String, Double> entry : batch.deltas.entrySet()) {
+			args.add(SafeEncoder.encode(String.valueOf(shardIndex(entry.getKey()))));
+			args.add(SafeEncoder.encode(String.valueOf(entry.getValue())));
+			args.add(SafeEncoder.encode(entry.getKey()));
+		}
+		Jedis jedis = null;
+		try {
+			jedis = jedisUtil.getJedis();
+			FLUSH_SCRIPT.eval(jedis, keys, args);
+		} finally {
+			if (jedis != null) {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+	}
+
+	/**
+	 * 前k名，k不超过快照大小时直接使用本地快照
+	 *
+	 * @param k
+	 * @return 按排名排列的成员
+	 */
+	public List<Entry> top(int k) {
+		if (k <= snapshotSize && scheduler != null) {
+			List<Entry> entries = snapshot.entries;
+			return entries.subList(0, Math.min(k, entries.size()));
+		}
+		return loadTop(k);
+	}
+
+	/**
+	 * 成员的排名
+	 *
+	 * @param member
+	 * @return 排名，从0开始，成员不存在时返回-1
+	 */
+	public long rank(String member) {
+		Snapshot current = snapshot;
+		Integer position = current.positions.get(member);
+		if (position != null && scheduler != null) {
+			return current.entries.get(position).rank;
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Double score = jedis.zscore(shardKey(member), member);
+			if (score == null) {
+				return -1;
+			}
+			return countAbove(jedis, score);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 成员排名前后各n名(包括该成员自己)
+	 *
+	 * @param member
+	 * @param n
+	 * @return 按排名排列的成员，成员不存在时返回空集合
+	 */
+	public List<Entry> around(String member, int n) {
+		Snapshot current = snapshot;
+		Integer position = current.positions.get(member);
+		if (position != null && scheduler != null && position + n < current.entries.size()) {
+			return current.entries.subList(Math.max(position - n, 0), position + n + 1);
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Double score = jedis.zscore(shardKey(member), member);
+			if (score == null) {
+				return new ArrayList<Entry>(0);
+			}
+			long selfRank = countAbove(jedis, score);
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<Set<Tuple>>> responses = new ArrayList<Response<Set<Tuple>>>(shardKeys.length * 2);
+			for (String shardKey : shardKeys) {
+				responses.add(pipeline.zrangeByScoreWithScores(shardKey, score, Double.POSITIVE_INFINITY, 0, n + 1));
+				responses.add(pipeline.zrevrangeByScoreWithScores(shardKey, score, Double.NEGATIVE_INFINITY, 0, n + 1));
+			}
+			pipeline.sync();
+			Map<String, Entry> candidates = new HashMap<String, Entry>();
+			for (Response<Set<Tuple>> response : responses) {
+				for (Tuple tuple : response.get()) {
+					candidates.put(tuple.getElement(), new Entry(tuple.getElement(), tuple.getScore(), 0));
+				}
+			}
+			Entry self = candidates.get(member);
+			if (self == null) {
+				// 同分成员过多时自己可能不在候选中
+				self = new Entry(member, score, 0);
+				candidates.put(member, self);
+			}
+			List<Entry> window = window(new ArrayList<Entry>(candidates.values()), self, n);
+			// 排名与rank(member)一致，按严格大于各自分数的成员数计算
+			Set<Double> scores = new LinkedHashSet<Double>();
+			for (Entry e : window) {
+				if (e.score != score) {
+					scores.add(e.score);
+				}
+			}
+			Map<Double, Long> ranks = countAbove(jedis, scores);
+			ranks.put(score, selfRank);
+			List<Entry> result = new ArrayList<Entry>(window.size());
+			for (Entry e : window) {
+				result.add(new Entry(e.member, e.score, ranks.get(e.score)));
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 启动后台的增量刷新和快照刷新
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		refreshSnapshot();
+		scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-leaderboard-" + key);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					logger.error("flush leaderboard error,key:" + key, e);
+				}
+			}
+		}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refreshSnapshot();
+				} catch (Exception e) {
+					logger.error("refresh leaderboard snapshot error,key:" + key, e);
+				}
+			}
+		}, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止后台线程并写入剩余的增量
+	 */
+	public synchronized void shutdown() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		scheduler = null;
+		flush();
+	}
+
+	private void refreshSnapshot() {
+		snapshot = new Snapshot(loadTop(snapshotSize));
+	}
+
+	private List<Entry> loadTop(int k) {
+		Jedis jedis = jedisUtil.getJedis();
+		List<Entry> merged = new ArrayList<Entry>();
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<Set<Tuple>>> responses = new ArrayList<Response<Set<Tuple>>>(shardKeys.length);
+			for (String shardKey : shardKeys) {
+				responses.add(pipeline.zrevrangeWithScores(shardKey, 0, k - 1));
+			}
+			pipeline.sync();
+			for (Response<Set<Tuple>> response : responses) {
+				for (Tuple tuple : response.get()) {
+					merged.add(new Entry(tuple.getElement(), tuple.getScore(), 0));
+				}
+			}
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+		return rankTop(merged, k);
+	}
+
+	/**
+	 * 合并各分片的结果，取前k名，同分成员的排名相同
+	 */
+	static List<Entry> rankTop(List<Entry> merged, int k) {
+		Collections.sort(merged, DESC);
+		List<Entry> top = new ArrayList<Entry>(Math.min(k, merged.size()));
+		long rank = 0;
+		for (int i = 0; i < merged.size() && i < k; i++) {
+			Entry e = merged.get(i);
+			if (i > 0 && e.score < merged.get(i - 1).score) {
+				rank = i;
+			}
+			top.add(new Entry(e.member, e.score, rank));
+		}
+		return top;
+	}
+
+	/**
+	 * 按排行榜顺序排列候选成员，取self前后各n个
+	 */
+	static List<Entry> window(List<Entry> candidates, Entry self, int n) {
+		Collections.sort(candidates, DESC);
+		int index = candidates.indexOf(self);
+		return new ArrayList<Entry>(
+				candidates.subList(Math.max(index - n, 0), Math.min(index + n + 1, candidates.size())));
+	}
+
+	/**
+	 * 批量计算严格大于各个分数的成员数
+	 */
+	private Map<Double, Long> countAbove(Jedis jedis, Set<Double> scores) {
+		Map<Double, Long> counts = new HashMap<Double, Long>();
+		if (scores.isEmpty()) {
+			return counts;
+		}
+		Pipeline pipeline = jedis.pipelined();
+		Map<Double, List<Response<Long>>> responses = new HashMap<Double, List<Response<Long>>>();
+		for (Double score : scores) {
+			List<Response<Long>> list = new ArrayList<Response<Long>>(shardKeys.length);
+			for (String shardKey : shardKeys) {
+				list.add(pipeline.zcount(shardKey, "(" + score, "+inf"));
+			}
+			responses.put(score, list);
+		}
+		pipeline.sync();
+		for (Map.Entry<Double, List<Response<Long>>> entry : responses.entrySet()) {
+			long count = 0;
+			for (Response<Long> response : entry.getValue()) {
+				count += response.get();
+			}
+			counts.put(entry.getKey(), count);
+		}
+		return counts;
+	}
+
+	private long countAbove(Jedis jedis, double score) {
+		if (shardKeys.length == 1) {
+			return jedis.zcount(key, "(" + score, "+inf");
+		}
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<Long>> responses = new ArrayList<Response<Long>>(shardKeys.length);
+		for (String shardKey : shardKeys) {
+			responses.add(pipeline.zcount(shardKey, "(" + score, "+inf"));
+		}
+		pipeline.sync();
+		long count = 0;
+		for (Response<Long> response : responses) {
+			count += response.get();
+		}
+		return count;
+	}
+
+	private String shardKey(String member) {
+		return shardKeys[shardIndex(member)];
+	}
+
+	private int shardIndex(String member) {
+		if (shardKeys.length == 1) {
+			return 0;
+		}
+		return (member.hashCode() & Integer.MAX_VALUE) % shardKeys.length;
+	}
+
+	public void setSnapshotSize(int snapshotSize) {
+		this.snapshotSize = snapshotSize;
+	}
+
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	public void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+	}
+
+	/**
+	 * 一批待写入的增量
+	 */
+	private static class Batch {
+		/**
+		 * 批次标记的key
+		 */
+		final String id;
+		final Map<String, Double> deltas = new HashMap<String, Double>();
+
+		Batch(String id) {
+			this.id = id;
+		}
+	}
+
+	private static class Snapshot {
+		final List<Entry> entries;
+		final Map<String, Integer> positions;
+
+		Snapshot(List<Entry> entries) {
+			this.entries = Collections.unmodifiableList(entries);
+			this.positions = new HashMap<String, Integer>(entries.size() * 2);
+			for (int i = 0; i < entries.size(); i++) {
+				positions.put(entries.get(i).member, i);
+			}
+		}
+	}
+
+	/**
+	 * 排行榜中的一项
+	 */
+	public static class Entry {
+		private final String member;
+		private final double score;
+		private final long rank;
+
+		Entry(String member, double score, long rank) {
+			this.member = member;
+			this.score = score;
+			this.rank = rank;
+		}
+
+		public String getMember() {
+			return member;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		public long getRank() {
+			return rank;
+		}
+
+		@Override
+		public String toString() {
+			return rank + ":" + member + "(" + score + ")";
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 连接泄漏检测</br>
+ * <ul>
+ * <li>通过{@link JedisUtil#setLeakDetector(LeakDetector)}启用后，记录每个借出连接的借出时间和线程</li>
+ * <li>按sampleRate的比例记录借出位置的调用栈，线上可以用较低的比例常开</li>
+ * <li>后台线程定期检查，借出超过leakMillis仍未归还的连接记录告警日志，每个连接只告警一次</li>
+ * <li>告警过的连接之后归还时也会记录日志，便于区分真正的泄漏和慢操作</li>
+ * </ul>
+ *
+ * @author ziliang.wu
+ */
+public class LeakDetector {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeakDetector.class);
+
+	/**
+	 * 借出超过该时间未归还视为泄漏，毫秒
+	 */
+	private long leakMillis = 60000;
+	/**
+	 * 记录调用栈的比例，1为全部记录，0为不记录
+	 */
+	private double sampleRate = 0.01;
+	/**
+	 * 检查周期，毫秒
+	 */
+	private long intervalMillis = 10000;
+
+	private final ConcurrentHashMap<Jedis, Borrow> borrowed = new ConcurrentHashMap<Jedis, Borrow>();
+
+	private final AtomicLong leaks = new AtomicLong();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * 连接借出后调用
+	 */
+	void onBorrow(Jedis jedis) {
+		Throwable site = null;
+		if (sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+			site = new Throwable("redis connection borrowed here");
+		}
+		borrowed.put(jedis, new Borrow(System.currentTimeMillis(), Thread.currentThread().getName(), site));
+	}
+
+	/**
+	 * 连接归还后调用
+	 */
+	void onReturn(Jedis jedis) {
+		Borrow borrow = borrowed.remove(jedis);
+		if (borrow != null && borrow.reported) {
+			logger.warn("leaked redis connection returned after {}ms,thread:{}",
+					System.currentTimeMillis() - borrow.time, borrow.thread);
+		}
+	}
+
+	/**
+	 * 检查一次，对新发现的泄漏记录日志
+	 *
+	 * @return 新发现的泄漏数
+	 */
+	public int check() {
+		long now = System.currentTimeMillis();
+		int found = 0;
+		for (Borrow borrow : borrowed.values()) {
+			if (borrow.reported || now - borrow.time < leakMillis) {
+				continue;
+			}
+			borrow.reported = true;
+			found++;
+			leaks.incrementAndGet();
+			if (borrow.site != null) {
+				logger.warn("redis connection held for " + (now - borrow.time) + "ms,thread:" + borrow.thread,
+						borrow.site);
+			} else {
+				logger.warn("redis connection held for {}ms,thread:{},borrow site not sampled", now - borrow.time,
+						borrow.thread);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return 当前借出超过leakMillis的连接的借出时长，毫秒
+	 */
+	public List<Long> getSuspects() {
+		long now = System.currentTimeMillis();
+		List<Long> suspects = new ArrayList<Long>();
+		for (Map.Entry<Jedis, Borrow> entry : borrowed.entrySet()) {
+			long held = now - entry.getValue().time;
+			if (held >= leakMillis) {
+				suspects.add(held);
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * @return 当前借出未归还的连接数
+	 */
+	public int getBorrowed() {
+		return borrowed.size();
+	}
+
+	/**
+	 * @return 累计发现的泄漏数
+	 */
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * 启动后台检查线程
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-leak-detector");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (Exception e) {
+					logger.error("check redis connection leak error", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		scheduler = null;
+	}
+
+	public void setLeakMillis(long leakMillis) {
+		this.leakMillis = leakMillis;
+	}
+
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * 一次借出的记录
+	 */
+	private static class Borrow {
+		final long time;
+		final String thread;
+		final Throwable site;
+		volatile boolean reported;
+
+		Borrow(long time, String thread, Throwable site) {
+			this.time = time;
+			this.thread = thread;
+			this.site = site;
+		}
+	}
+}
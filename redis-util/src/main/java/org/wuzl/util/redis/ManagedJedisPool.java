@@ -0,0 +1,241 @@
+package org.wuzl.util.redis;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * JedisUtil使用的连接池，在JedisPool的基础上支持按调用指定借用连接的最长等待时间</br>
+ * 设置{@link CircuitBreaker}后，借用前检查熔断器，借用失败或归还损坏的连接记为失败，正常归还时按借出时长记录成功；
+ * 半开状态下只有进入半开后借出的连接作为探测结果</br>
+ * 统计借用次数、借用等待时间和借出连接数的峰值，供{@link AdaptivePoolSizer}调整连接池大小</br>
+ * 设置{@link LeakDetector}后记录每次借出和归还，用于发现长时间未归还的连接
+ *
+ * @author ziliang.wu
+ */
+public class ManagedJedisPool extends JedisPool {
+
+	public ManagedJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout, String password,
+			int database) {
+		super(poolConfig, host, port, timeout, password, database);
+	}
+
+	private volatile CircuitBreaker circuitBreaker;
+
+	private volatile LeakDetector leakDetector;
+
+	/**
+	 * 借出时的时间和熔断器的半开序号，用于计算慢调用和区分探测调用
+	 */
+	private final ConcurrentHashMap<Jedis, Borrow> borrowTimes = new ConcurrentHashMap<Jedis, Borrow>();
+
+	private final AtomicLong borrows = new AtomicLong();
+
+	private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+	private final AtomicInteger peakActive = new AtomicInteger();
+
+	@Override
+	public Jedis getResource() {
+		return borrow(-1);
+	}
+
+	/**
+	 * 借用连接，最多等待maxWaitMillis毫秒
+	 *
+	 * @param maxWaitMillis
+	 *            最长等待时间，覆盖连接池配置的maxWaitMillis
+	 * @return
+	 */
+	public Jedis getResource(long maxWaitMillis) {
+		return borrow(maxWaitMillis);
+	}
+
+	private Jedis borrow(long maxWaitMillis) {
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null) {
+			breaker.acquirePermission();
+		}
+		Jedis jedis;
+		long start = System.nanoTime();
+		try {
+			jedis = maxWaitMillis < 0 ? internalPool.borrowObject() : internalPool.borrowObject(maxWaitMillis);
+		} catch (NoSuchElementException e) {
+			onBorrowFailure(breaker);
+			throw new JedisConnectionException("Could not get a resource from the pool", e);
+		} catch (JedisException e) {
+			onBorrowFailure(breaker);
+			throw e;
+		} catch (Exception e) {
+			onBorrowFailure(breaker);
+			throw new JedisConnectionException("Could not get a resource from the pool", e);
+		}
+		borrowWaitNanos.addAndGet(System.nanoTime() - start);
+		borrows.incrementAndGet();
+		int active = internalPool.getNumActive();
+		int peak;
+		while (active > (peak = peakActive.get()) && !peakActive.compareAndSet(peak, active)) {
+		}
+		jedis.setDataSource(this);
+		if (breaker != null) {
+			borrowTimes.put(jedis, new Borrow(System.currentTimeMillis(), breaker.probeEpoch()));
+		}
+		LeakDetector detector = leakDetector;
+		if (detector != null) {
+			detector.onBorrow(jedis);
+		}
+		return jedis;
+	}
+
+	private void onBorrowFailure(CircuitBreaker breaker) {
+		if (breaker != null) {
+			breaker.onFailure();
+		}
+	}
+
+	/**
+	 * 由{@link Jedis#close()}调用
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public void returnResource(Jedis resource) {
+		if (resource != null) {
+			Borrow borrow = borrowTimes.remove(resource);
+			CircuitBreaker breaker = circuitBreaker;
+			if (breaker != null && borrow != null) {
+				breaker.onSuccess(borrow.time < 0 ? -1 : System.currentTimeMillis() - borrow.time, borrow.probeEpoch);
+			}
+			onReturn(resource);
+		}
+		super.returnResource(resource);
+	}
+
+	/**
+	 * 由{@link Jedis#close()}在连接损坏时调用
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public void returnBrokenResource(Jedis resource) {
+		if (resource != null) {
+			Borrow borrow = borrowTimes.remove(resource);
+			CircuitBreaker breaker = circuitBreaker;
+			if (breaker != null && borrow != null) {
+				breaker.onFailure(borrow.probeEpoch);
+			}
+			onReturn(resource);
+		}
+		super.returnBrokenResource(resource);
+	}
+
+	private void onReturn(Jedis resource) {
+		LeakDetector detector = leakDetector;
+		if (detector != null) {
+			detector.onReturn(resource);
+		}
+	}
+
+	/**
+	 * 该连接的借出时长不计入慢调用，用于会话等长时间持有连接的场景
+	 */
+	void skipLatency(Jedis jedis) {
+		Borrow borrow = borrowTimes.get(jedis);
+		if (borrow != null) {
+			borrowTimes.put(jedis, new Borrow(-1, borrow.probeEpoch));
+		}
+	}
+
+	/**
+	 * @return 累计借用次数
+	 */
+	public long getBorrowCount() {
+		return borrows.get();
+	}
+
+	/**
+	 * @return 累计借用等待时间，毫秒
+	 */
+	public long getBorrowWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(borrowWaitNanos.get());
+	}
+
+	/**
+	 * 返回上次调用以来借出连接数的峰值，并从当前借出数重新开始统计
+	 */
+	int resetPeakActive() {
+		return peakActive.getAndSet(internalPool.getNumActive());
+	}
+
+	public int getMaxTotal() {
+		return internalPool.getMaxTotal();
+	}
+
+	public int getMaxIdle() {
+		return internalPool.getMaxIdle();
+	}
+
+	public int getMinIdle() {
+		return internalPool.getMinIdle();
+	}
+
+	/**
+	 * 调整连接池大小，多出的空闲连接立即关闭，不足minIdle时预先创建
+	 */
+	void resize(int maxTotal, int maxIdle, int minIdle) {
+		internalPool.setMaxTotal(maxTotal);
+		internalPool.setMaxIdle(maxIdle);
+		internalPool.setMinIdle(minIdle);
+		try {
+			// 每次借出前检查空闲数，空闲连接被其他线程借走后停止，避免为了关闭而新建连接
+			while (internalPool.getNumIdle() > maxIdle) {
+				Jedis jedis = internalPool.borrowObject(0);
+				internalPool.invalidateObject(jedis);
+			}
+			for (int lack = minIdle - internalPool.getNumIdle(); lack > 0
+					&& internalPool.getNumActive() + internalPool.getNumIdle() < maxTotal; lack--) {
+				internalPool.addObject();
+			}
+		} catch (NoSuchElementException e) {
+			// 空闲连接已被其他线程借走
+		} catch (Exception e) {
+			throw new JedisConnectionException("resize pool error", e);
+		}
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+		if (circuitBreaker == null) {
+			borrowTimes.clear();
+		}
+	}
+
+	public LeakDetector getLeakDetector() {
+		return leakDetector;
+	}
+
+	public void setLeakDetector(LeakDetector leakDetector) {
+		this.leakDetector = leakDetector;
+	}
+
+	private static class Borrow {
+		final long time;
+		final int probeEpoch;
+
+		Borrow(long time, int probeEpoch) {
+			this.time = time;
+			this.probeEpoch = probeEpoch;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.DebugParams;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * redis内存分析工具</br>
+ * <ul>
+ * <li>通过SCAN遍历全部key，按配置的前缀归类，每个key按采样率决定是否测量</li>
+ * <li>被采样的key通过pipeline获取TYPE、元素个数(STRLEN/HLEN/SCARD/ZCARD/LLEN)以及序列化长度(DEBUG OBJECT，不可用时退回DUMP)</li>
+ * <li>按类别用样本均值估算总字节数，并给出95%置信区间</li>
+ * <li>扫描速度受maxKeysPerSecond限制，可以在生产环境运行</li>
+ * </ul>
+ *
+ * @author ziliang.wu
+ */
+public class MemoryAnalyzer {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemoryAnalyzer.class);
+
+	/**
+	 * 不匹配任何前缀的key归入该类别
+	 */
+	public static final String OTHER = "(other)";
+
+	private static final double Z_95 = 1.96;
+
+	private final JedisUtil jedisUtil;
+
+	private final List<String> prefixes;
+
+	/**
+	 * 采样率，0到1之间
+	 */
+	private double sampleRate = 0.01;
+	/**
+	 * 每秒最多扫描的key数
+	 */
+	private int maxKeysPerSecond = 10000;
+	/**
+	 * 每次SCAN的count
+	 */
+	private int scanCount = 500;
+	/**
+	 * 是否使用DEBUG OBJECT获取序列化长度，为false或命令被禁用时使用DUMP
+	 */
+	private boolean useDebugObject = true;
+
+	/**
+	 * @param prefixes
+	 *            key前缀，按顺序匹配，先匹配的优先
+	 */
+	public MemoryAnalyzer(List<String> prefixes) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.prefixes = new ArrayList<String>(prefixes);
+	}
+
+	/**
+	 * 分析匹配pattern的key
+	 *
+	 * @param pattern
+	 *            key的表达式,*表示多个，？表示一个
+	 * @return 按类别统计的结果
+	 */
+	public Collection<FamilyStats> analyze(String pattern) {
+		Map<String, FamilyStats> families = new LinkedHashMap<String, FamilyStats>();
+		for (String prefix : prefixes) {
+			families.put(prefix, new FamilyStats(prefix));
+		}
+		families.put(OTHER, new FamilyStats(OTHER));
+
+		long start = System.currentTimeMillis();
+		long scanned = 0;
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			ScanParams params = new ScanParams().match(pattern).count(scanCount);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				ScanResult<String> result = jedis.scan(cursor, params);
+				cursor = result.getStringCursor();
+				List<String> sampledKeys = new ArrayList<String>();
+				List<FamilyStats> sampledFamilies = new ArrayList<FamilyStats>();
+				for (String key : result.getResult()) {
+					FamilyStats stats = families.get(familyOf(key));
+					stats.keyCount++;
+					if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+						sampledKeys.add(key);
+						sampledFamilies.add(stats);
+					}
+				}
+				if (!sampledKeys.isEmpty()) {
+					measure(jedis, sampledKeys, sampledFamilies);
+				}
+				scanned += result.getResult().size();
+				throttle(scanned, start);
+			} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+		for (FamilyStats stats : families.values()) {
+			if (stats.keyCount > 0) {
+				logger.info("memory analyze,{}", stats);
+			}
+		}
+		logger.info("memory analyze finished,pattern:{},scanned:{},elapsed:{}ms", pattern, scanned,
+				System.currentTimeMillis() - start);
+		return families.values();
+	}
+
+	String familyOf(String key) {
+		for (String prefix : prefixes) {
+			if (key.startsWith(prefix)) {
+				return prefix;
+			}
+		}
+		return OTHER;
+	}
+
+	private void measure(Jedis jedis, List<String> keys, List<FamilyStats> families) {
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<String>> types = new ArrayList<Response<String>>(keys.size());
+		for (String key : keys) {
+			types.add(pipeline.type(key));
+		}
+		pipeline.sync();
+
+		pipeline = jedis.pipelined();
+		List<Response<Long>> lengths = new ArrayList<Response<Long>>(keys.size());
+		List<Response<byte[]>> dumps = useDebugObject ? null : new ArrayList<Response<byte[]>>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			lengths.add(length(pipeline, types.get(i).get(), keys.get(i)));
+			if (dumps != null) {
+				dumps.add(pipeline.dump(keys.get(i)));
+			}
+		}
+		pipeline.sync();
+
+		long[] sizes = new long[keys.size()];
+		if (useDebugObject) {
+			if (!serializedLengths(jedis, keys, sizes)) {
+				logger.warn("DEBUG OBJECT is not available,use DUMP instead");
+				useDebugObject = false;
+				measure(jedis, keys, families);
+				return;
+			}
+		} else {
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] dump = dumps.get(i).get();
+				sizes[i] = dump == null ? -1 : dump.length;
+			}
+		}
+
+		for (int i = 0; i < keys.size(); i++) {
+			String type = types.get(i).get();
+			// 测量过程中已被删除
+			if ("none".equals(type) || sizes[i] < 0) {
+				continue;
+			}
+			Response<Long> length = lengths.get(i);
+			families.get(i).addSample(type, sizes[i] + keys.get(i).length(), length == null ? 0 : length.get());
+		}
+	}
+
+	private static Response<Long> length(Pipeline pipeline, String type, String key) {
+		if ("string".equals(type)) {
+			return pipeline.strlen(key);
+		} else if ("hash".equals(type)) {
+			return pipeline.hlen(key);
+		} else if ("set".equals(type)) {
+			return pipeline.scard(key);
+		} else if ("zset".equals(type)) {
+			return pipeline.zcard(key);
+		} else if ("list".equals(type)) {
+			return pipeline.llen(key);
+		}
+		return null;
+	}
+
+	/**
+	 * 通过client手动pipeline发送DEBUG OBJECT
+	 *
+	 * @return DEBUG命令被禁用时返回false
+	 */
+	private static boolean serializedLengths(Jedis jedis, List<String> keys, long[] sizes) {
+		Client client = jedis.getClient();
+		for (String key : keys) {
+			client.debug(DebugParams.OBJECT(key));
+		}
+		List<Object> replies = client.getAll();
+		boolean available = true;
+		for (int i = 0; i < keys.size(); i++) {
+			Object reply = replies.get(i);
+			if (reply instanceof JedisDataException) {
+				String message = ((JedisDataException) reply).getMessage();
+				// key不存在时返回ERR no such key
+				if (message == null || !message.contains("no such key")) {
+					available = false;
+				}
+				sizes[i] = -1;
+			} else {
+				sizes[i] = parseSerializedLength(SafeEncoder.encode((byte[]) reply));
+			}
+		}
+		return available;
+	}
+
+	static long parseSerializedLength(String debug) {
+		int index = debug.indexOf("serializedlength:");
+		if (index < 0) {
+			return -1;
+		}
+		int start = index + "serializedlength:".length();
+		int end = start;
+		while (end < debug.length() && Character.isDigit(debug.charAt(end))) {
+			end++;
+		}
+		return Long.parseLong(debug.substring(start, end));
+	}
+
+	private void throttle(long scanned, long start) {
+		long expected = scanned * 1000 / maxKeysPerSecond;
+		long sleep = expected - (System.currentTimeMillis() - start);
+		if (sleep > 0) {
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public void setMaxKeysPerSecond(int maxKeysPerSecond) {
+		this.maxKeysPerSecond = maxKeysPerSecond;
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public void setUseDebugObject(boolean useDebugObject) {
+		this.useDebugObject = useDebugObject;
+	}
+
+	/**
+	 * 一类key的统计结果
+	 */
+	public static class FamilyStats {
+		private final String family;
+		long keyCount;
+		private long sampleCount;
+		private double sum;
+		private double sumOfSquares;
+		private long elementCount;
+		private final Map<String, Long> typeCount = new LinkedHashMap<String, Long>();
+
+		FamilyStats(String family) {
+			this.family = family;
+		}
+
+		void addSample(String type, long bytes, long elements) {
+			sampleCount++;
+			sum += bytes;
+			sumOfSquares += (double) bytes * bytes;
+			elementCount += elements;
+			Long count = typeCount.get(type);
+			typeCount.put(type, count == null ? 1 : count + 1);
+		}
+
+		public String getFamily() {
+			return family;
+		}
+
+		/**
+		 * @return 扫描到的key总数
+		 */
+		public long getKeyCount() {
+			return keyCount;
+		}
+
+		public long getSampleCount() {
+			return sampleCount;
+		}
+
+		/**
+		 * @return 样本中各类型的key数量
+		 */
+		public Map<String, Long> getTypeCount() {
+			return typeCount;
+		}
+
+		/**
+		 * @return 样本的平均元素个数
+		 */
+		public double getAvgElements() {
+			return sampleCount == 0 ? 0 : (double) elementCount / sampleCount;
+		}
+
+		/**
+		 * @return 样本的平均字节数
+		 */
+		public double getAvgBytes() {
+			return sampleCount == 0 ? 0 : sum / sampleCount;
+		}
+
+		/**
+		 * @return 估算的总字节数
+		 */
+		public double getEstimatedBytes() {
+			return getAvgBytes() * keyCount;
+		}
+
+		/**
+		 * @return 总字节数95%置信区间的半宽，样本不足2个时为0
+		 */
+		public double getMarginOfError() {
+			if (sampleCount < 2) {
+				return 0;
+			}
+			double mean = getAvgBytes();
+			double variance = Math.max((sumOfSquares - sampleCount * mean * mean) / (sampleCount - 1), 0);
+			double standardError = Math.sqrt(variance / sampleCount);
+			// 有限总体修正
+			if (keyCount > 1) {
+				standardError *= Math.sqrt(Math.max((double) (keyCount - sampleCount) / (keyCount - 1), 0));
+			}
+			return Z_95 * standardError * keyCount;
+		}
+
+		@Override
+		public String toString() {
+			return "family:" + family + ",keys:" + keyCount + ",samples:" + sampleCount + ",types:" + typeCount
+					+ ",avgElements:" + String.format("%.1f", getAvgElements()) + ",estimatedBytes:"
+					+ String.format("%.0f", getEstimatedBytes()) + "±" + String.format("%.0f", getMarginOfError());
+		}
+	}
+}
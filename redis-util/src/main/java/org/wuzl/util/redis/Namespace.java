@@ -0,0 +1,279 @@
+package org.wuzl.util.redis;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 带前缀的key空间</br>
+ * <ul>
+ * <li>前缀只编码一次，key由前缀字节和后缀直接拼接成byte[]，不再经过字符串拼接和整体编码</li>
+ * <li>后缀和值都是ASCII时逐字符写入，不经过charset编码器；否则使用线程内复用的编码器和缓冲区</li>
+ * </ul>
+ * 通过{@link JedisUtil#namespace(String)}获取，同一前缀共享一个实例
+ *
+ * @author ziliang.wu
+ */
+public class Namespace {
+
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private static final ThreadLocal<Encoder> ENCODER = new ThreadLocal<Encoder>() {
+		@Override
+		protected Encoder initialValue() {
+			return new Encoder();
+		}
+	};
+
+	private final JedisUtil jedisUtil;
+
+	private final String prefix;
+
+	private final byte[] prefixBytes;
+
+	Namespace(String prefix) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.prefix = prefix;
+		this.prefixBytes = prefix.getBytes(UTF8);
+	}
+
+	/**
+	 * 子空间，前缀为当前前缀加上child
+	 */
+	public Namespace namespace(String child) {
+		return JedisUtil.namespace(prefix + child);
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * 完整的key
+	 *
+	 * @param id
+	 *            前缀之后的部分
+	 */
+	public byte[] key(String id) {
+		return ENCODER.get().encode(prefixBytes, id);
+	}
+
+	public String get(String id) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return decode(jedis.get(key(id)));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public List<String> mget(String... ids) {
+		byte[][] keys = new byte[ids.length][];
+		for (int i = 0; i < ids.length; i++) {
+			keys[i] = key(ids[i]);
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			List<byte[]> values = jedis.mget(keys);
+			List<String> result = new ArrayList<String>(values.size());
+			for (byte[] value : values) {
+				result.add(decode(value));
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public String set(String id, String value) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.set(key(id), encode(value));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public String setEx(String id, int seconds, String value) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.setex(key(id), JedisUtil.jitterTtl(seconds), encode(value));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public Object getObject(String id) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			byte[] value = jedis.get(key(id));
+			return value == null ? null : SerializeUtil.unserizlize(value);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public <T extends Serializable> String setObject(String id, T value) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.set(key(id), SerializeUtil.serialize(value));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long incrBy(String id, long number) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.incrBy(key(id), number);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long del(String... ids) {
+		byte[][] keys = new byte[ids.length][];
+		for (int i = 0; i < ids.length; i++) {
+			keys[i] = key(ids[i]);
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.del(keys);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public boolean exists(String id) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.exists(key(id));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long expire(String id, int seconds) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.expire(key(id), JedisUtil.jitterTtl(seconds));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public String hget(String id, String field) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return decode(jedis.hget(key(id), encode(field)));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public List<String> hmget(String id, String... fields) {
+		byte[][] encoded = new byte[fields.length][];
+		for (int i = 0; i < fields.length; i++) {
+			encoded[i] = encode(fields[i]);
+		}
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			List<byte[]> values = jedis.hmget(key(id), encoded);
+			List<String> result = new ArrayList<String>(values.size());
+			for (byte[] value : values) {
+				result.add(decode(value));
+			}
+			return result;
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	public long hset(String id, String field, String value) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return jedis.hset(key(id), encode(field), encode(value));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 字符串编码为utf-8，ASCII时不经过编码器
+	 */
+	static byte[] encode(String value) {
+		return ENCODER.get().encode(null, value);
+	}
+
+	private static String decode(byte[] value) {
+		return value == null ? null : SafeEncoder.encode(value);
+	}
+
+	/**
+	 * 线程内复用的编码器
+	 */
+	private static class Encoder {
+		private final CharsetEncoder encoder = UTF8.newEncoder();
+		private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		byte[] encode(byte[] prefix, String value) {
+			int prefixLength = prefix == null ? 0 : prefix.length;
+			int length = value.length();
+			boolean ascii = true;
+			for (int i = 0; i < length; i++) {
+				if (value.charAt(i) >= 0x80) {
+					ascii = false;
+					break;
+				}
+			}
+			if (ascii) {
+				byte[] bytes = new byte[prefixLength + length];
+				if (prefixLength > 0) {
+					System.arraycopy(prefix, 0, bytes, 0, prefixLength);
+				}
+				for (int i = 0; i < length; i++) {
+					bytes[prefixLength + i] = (byte) value.charAt(i);
+				}
+				return bytes;
+			}
+			int max = (int) (length * encoder.maxBytesPerChar());
+			if (buffer.capacity() < max) {
+				buffer = ByteBuffer.allocate(max);
+			}
+			buffer.clear();
+			encoder.reset();
+			CoderResult result = encoder.encode(CharBuffer.wrap(value), buffer, true);
+			if (!result.isError()) {
+				result = encoder.flush(buffer);
+			}
+			if (result.isError()) {
+				// 不成对的代理字符等，按String.getBytes的方式替换
+				return concat(prefix, value.getBytes(UTF8));
+			}
+			byte[] bytes = new byte[prefixLength + buffer.position()];
+			if (prefixLength > 0) {
+				System.arraycopy(prefix, 0, bytes, 0, prefixLength);
+			}
+			System.arraycopy(buffer.array(), 0, bytes, prefixLength, buffer.position());
+			return bytes;
+		}
+
+		private static byte[] concat(byte[] prefix, byte[] value) {
+			if (prefix == null) {
+				return value;
+			}
+			byte[] bytes = new byte[prefix.length + value.length];
+			System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+			System.arraycopy(value, 0, bytes, prefix.length, value.length);
+			return bytes;
+		}
+	}
+}
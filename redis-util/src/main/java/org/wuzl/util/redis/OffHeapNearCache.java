@@ -0,0 +1,483 @@
+package org.wuzl.util.redis;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 堆外的本地近缓存</br>
+ * <ul>
+ * <li>缓存{@link JedisUtil.Strings#get(byte[])}返回的原始字节，key和value都存放在直接内存中，不占用堆，不增加GC压力</li>
+ * <li>按key的hash分为多个段，每段一块直接内存，按追加的方式写入；每条数据的hash、长度和过期时间也写在直接内存中</li>
+ * <li>段内的索引是开放寻址的long[]和int[]，每条数据只占用索引中的一个hash和一个位置，命中标记保存在位置的最高位，不为每条数据创建对象</li>
+ * <li>空间不足时按CLOCK淘汰：从最早写入的数据开始，最近命中过的清除命中标记后移到末尾，否则淘汰</li>
+ * <li>{@link #getObject(byte[])}只在命中后反序列化</li>
+ * </ul>
+ * 本地缓存不会感知其他客户端的修改，ttlMillis决定最长的不一致时间；修改数据后调用{@link #invalidate(byte[])}。
+ * 也可以在{@link CircuitBreaker#call(java.util.function.Supplier, java.util.function.Supplier)}中通过{@link #getIfPresent(byte[])}作为降级数据。
+ * 不再使用时调用{@link #close()}释放直接内存
+ *
+ * @author ziliang.wu
+ */
+public class OffHeapNearCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(OffHeapNearCache.class);
+
+	/**
+	 * 直接内存中每条数据的头：hash(8)、key长度(4)、value长度(4)、过期时间(8)
+	 */
+	private static final int HEADER = 24;
+
+	/**
+	 * 索引中的空位和已删除位置的hash，真实的hash会避开这两个值
+	 */
+	private static final long EMPTY = 0;
+
+	private static final long DELETED = 1;
+
+	/**
+	 * 位置的最高位作为CLOCK的命中标记
+	 */
+	private static final int REFERENCED = 0x80000000;
+
+	private final JedisUtil.Strings strings;
+
+	private final Segment[] segments;
+
+	/**
+	 * 本地缓存的有效期，毫秒
+	 */
+	private long ttlMillis = 60000;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacityBytes
+	 *            直接内存的总大小，平均分给16个段
+	 */
+	public OffHeapNearCache(long capacityBytes) {
+		this(capacityBytes, 16);
+	}
+
+	/**
+	 * @param capacityBytes
+	 *            直接内存的总大小
+	 * @param segmentCount
+	 *            段数，每段有独立的锁
+	 */
+	public OffHeapNearCache(long capacityBytes, int segmentCount) {
+		if (segmentCount <= 0 || capacityBytes < segmentCount) {
+			throw new IllegalArgumentException("illegal capacity:" + capacityBytes + ",segments:" + segmentCount);
+		}
+		long segmentBytes = capacityBytes / segmentCount;
+		if (segmentBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segment larger than 2GB,increase segments:" + segmentBytes);
+		}
+		this.strings = JedisUtil.STRINGS;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment((int) segmentBytes);
+		}
+	}
+
+	/**
+	 * 读取原始字节，本地没有时从redis读取并缓存
+	 */
+	public byte[] get(byte[] key) {
+		byte[] value = getIfPresent(key);
+		if (value != null) {
+			hits.incrementAndGet();
+			return value;
+		}
+		misses.incrementAndGet();
+		value = strings.get(key);
+		if (value != null) {
+			put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * 读取反序列化的对象，序列化方式与{@link JedisUtil.Strings#getObject(byte[])}相同
+	 */
+	public Object getObject(byte[] key) {
+		byte[] value = get(key);
+		return value == null ? null : SerializeUtil.unserizlize(value);
+	}
+
+	/**
+	 * 只读取本地缓存，不访问redis
+	 *
+	 * @return 本地没有或已过期时返回null
+	 */
+	public byte[] getIfPresent(byte[] key) {
+		long hash = hash(key);
+		return segment(hash).get(hash, key, System.currentTimeMillis());
+	}
+
+	/**
+	 * 写入本地缓存，不修改redis
+	 */
+	public void put(byte[] key, byte[] value) {
+		long hash = hash(key);
+		segment(hash).put(hash, key, value, System.currentTimeMillis() + ttlMillis);
+	}
+
+	/**
+	 * 删除本地缓存
+	 */
+	public void invalidate(byte[] key) {
+		long hash = hash(key);
+		segment(hash).remove(hash);
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * 释放直接内存，之后的读取都不命中，写入被忽略
+	 */
+	public void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+	}
+
+	private static long hash(byte[] key) {
+		long hash = BloomFilter.murmur3(key)[0];
+		return hash == EMPTY || hash == DELETED ? hash + 2 : hash;
+	}
+
+	private Segment segment(long hash) {
+		return segments[(int) ((hash >>> 32) % segments.length)];
+	}
+
+	/**
+	 * @return 缓存的条数
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return 已使用的直接内存，包括已删除还未回收的空间
+	 */
+	public long getUsedBytes() {
+		long used = 0;
+		for (Segment segment : segments) {
+			used += segment.usedBytes();
+		}
+		return used;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * 一段直接内存，作为环形缓冲区按写入顺序追加，队首是最早写入的数据
+	 */
+	private class Segment {
+		private ByteBuffer slab;
+		private final int capacity;
+		/**
+		 * 开放寻址的索引，hashes[i]为数据的hash，positions[i]为数据在slab中的位置
+		 */
+		private long[] hashes;
+		private int[] positions;
+		private int size;
+		private int deleted;
+		private int head;
+		private int tail;
+		private int used;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.slab = ByteBuffer.allocateDirect(capacity);
+			this.hashes = new long[16];
+			this.positions = new int[16];
+		}
+
+		synchronized byte[] get(long hash, byte[] key, long now) {
+			if (slab == null) {
+				return null;
+			}
+			int slot = find(hash);
+			if (slot < 0) {
+				return null;
+			}
+			int offset = positions[slot] & ~REFERENCED;
+			if (slab.getLong(offset + 16) <= now) {
+				delete(slot);
+				return null;
+			}
+			int keyLength = slab.getInt(offset + 8);
+			if (!keyEquals(offset + HEADER, keyLength, key)) {
+				return null;
+			}
+			positions[slot] |= REFERENCED;
+			byte[] value = new byte[slab.getInt(offset + 12)];
+			slab.position(offset + HEADER + keyLength);
+			slab.get(value);
+			return value;
+		}
+
+		synchronized void put(long hash, byte[] key, byte[] value, long expireTime) {
+			if (slab == null) {
+				return;
+			}
+			remove(hash);
+			int length = HEADER + key.length + value.length;
+			if (length > capacity) {
+				return;
+			}
+			int offset;
+			while ((offset = append(length)) < 0) {
+				evict();
+			}
+			slab.putLong(offset, hash);
+			slab.putInt(offset + 8, key.length);
+			slab.putInt(offset + 12, value.length);
+			slab.putLong(offset + 16, expireTime);
+			slab.position(offset + HEADER);
+			slab.put(key);
+			slab.put(value);
+			insert(hash, offset);
+		}
+
+		synchronized void remove(long hash) {
+			int slot = find(hash);
+			if (slot >= 0) {
+				// 空间在淘汰到它时回收
+				delete(slot);
+			}
+		}
+
+		synchronized void clear() {
+			Arrays.fill(hashes, EMPTY);
+			size = 0;
+			deleted = 0;
+			head = 0;
+			tail = 0;
+			used = 0;
+		}
+
+		synchronized void close() {
+			if (slab == null) {
+				return;
+			}
+			release(slab);
+			slab = null;
+			hashes = new long[16];
+			positions = new int[16];
+			size = 0;
+			deleted = 0;
+			used = 0;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized int usedBytes() {
+			return used;
+		}
+
+		private boolean keyEquals(int offset, int keyLength, byte[] key) {
+			if (keyLength != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (slab.get(offset + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 空闲空间足够时在末尾分配，不跨越段的末尾，末尾剩余的空间作为填充跳过
+		 *
+		 * @return 分配的位置，空间不足时返回-1
+		 */
+		private int append(int length) {
+			int offset = tail;
+			int padding = 0;
+			if (offset + length > capacity) {
+				padding = capacity - offset;
+				offset = 0;
+			}
+			if (capacity - used < padding + length) {
+				return -1;
+			}
+			if (padding >= 12) {
+				// 填充标记，淘汰时跳到段首
+				slab.putInt(tail + 8, -1);
+			}
+			used += padding + length;
+			tail = offset + length == capacity ? 0 : offset + length;
+			return offset;
+		}
+
+		/**
+		 * 回收队首的空间，最近命中过的有效数据移到末尾
+		 */
+		private void evict() {
+			if (used == 0) {
+				head = 0;
+				tail = 0;
+				return;
+			}
+			if (capacity - head < HEADER || slab.getInt(head + 8) < 0) {
+				used -= capacity - head;
+				head = 0;
+				return;
+			}
+			int offset = head;
+			long hash = slab.getLong(offset);
+			int length = HEADER + slab.getInt(offset + 8) + slab.getInt(offset + 12);
+			head = offset + length == capacity ? 0 : offset + length;
+			used -= length;
+			int slot = find(hash);
+			if (slot < 0 || (positions[slot] & ~REFERENCED) != offset) {
+				// 已删除或已被覆盖
+				return;
+			}
+			if ((positions[slot] & REFERENCED) != 0 && slab.getLong(offset + 16) > System.currentTimeMillis()) {
+				byte[] data = new byte[length];
+				slab.position(offset);
+				slab.get(data);
+				int moved = append(length);
+				if (moved >= 0) {
+					slab.position(moved);
+					slab.put(data);
+					// 清除命中标记
+					positions[slot] = moved;
+					return;
+				}
+			}
+			delete(slot);
+			evictions.incrementAndGet();
+		}
+
+		private int find(long hash) {
+			int mask = hashes.length - 1;
+			for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if (h == EMPTY) {
+					return -1;
+				}
+				if (h == hash) {
+					return i;
+				}
+			}
+		}
+
+		private void insert(long hash, int offset) {
+			if ((size + deleted + 1) * 4 > hashes.length * 3) {
+				rehash(size + 1 > hashes.length / 2 ? hashes.length * 2 : hashes.length);
+			}
+			int mask = hashes.length - 1;
+			int i = mix(hash) & mask;
+			while (hashes[i] != EMPTY && hashes[i] != DELETED) {
+				i = (i + 1) & mask;
+			}
+			if (hashes[i] == DELETED) {
+				deleted--;
+			}
+			hashes[i] = hash;
+			positions[i] = offset;
+			size++;
+		}
+
+		private void delete(int slot) {
+			hashes[slot] = DELETED;
+			size--;
+			deleted++;
+		}
+
+		/**
+		 * 重建索引，同时清除已删除的位置
+		 */
+		private void rehash(int length) {
+			long[] oldHashes = hashes;
+			int[] oldPositions = positions;
+			hashes = new long[length];
+			positions = new int[length];
+			int mask = length - 1;
+			for (int j = 0; j < oldHashes.length; j++) {
+				long h = oldHashes[j];
+				if (h == EMPTY || h == DELETED) {
+					continue;
+				}
+				int i = mix(h) & mask;
+				while (hashes[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				hashes[i] = h;
+				positions[i] = oldPositions[j];
+			}
+			deleted = 0;
+		}
+	}
+
+	/**
+	 * 段的选择使用了hash的高32位，索引使用低位
+	 */
+	private static int mix(long hash) {
+		return (int) hash;
+	}
+
+	/**
+	 * 立即释放直接内存，不支持时等待GC回收
+	 */
+	private static void release(ByteBuffer buffer) {
+		try {
+			// java 9及以上
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(field.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// java 8没有invokeCleaner
+		}
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(buffer);
+			c.getClass().getMethod("clean").invoke(c);
+		} catch (Exception e) {
+			logger.warn("release direct buffer error,wait for gc", e);
+		}
+	}
+}
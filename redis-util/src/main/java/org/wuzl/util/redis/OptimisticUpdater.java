@@ -0,0 +1,276 @@
+package org.wuzl.util.redis;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 乐观锁方式的读-改-写</br>
+ * <ul>
+ * <li>在同一个连接上WATCH、读取、本地计算新值、MULTI/EXEC写入，key被其他客户端修改时EXEC失败并重试</li>
+ * <li>重试间隔按指数增长并加随机抖动，避免冲突的客户端同时重试</li>
+ * <li>写入时保留key原有的过期时间</li>
+ * <li>数值增减提供lua实现，一次往返且不会冲突</li>
+ * <li>json字段的修改在本地解析后同样通过WATCH/MULTI/EXEC写入，只修改指定字段，其他字段原样保留(包括超过2^53的整数和空数组)</li>
+ * <li>记录尝试、冲突和重试耗尽的次数，用于观察热点key的竞争程度</li>
+ * </ul>
+ * 更新函数返回null时删除key，返回传入的同一个对象时不写入；重试时更新函数会被再次调用，不能有副作用
+ *
+ * @author ziliang.wu
+ */
+public class OptimisticUpdater {
+
+	/**
+	 * KEYS[1]数值 ARGV[1]增量 ARGV[2]下限 ARGV[3]上限，结果超出范围时不修改并返回nil
+	 */
+	private static final RedisScript ADD_SCRIPT = new RedisScript(
+			"local value = tonumber(redis.call('GET', KEYS[1]) or '0') + tonumber(ARGV[1]) "
+					+ "if value < tonumber(ARGV[2]) or value > tonumber(ARGV[3]) then return false end "
+					+ "return redis.call('INCRBY', KEYS[1], ARGV[1])");
+
+	private final JedisUtil jedisUtil;
+
+	/**
+	 * 最多尝试次数
+	 */
+	private int maxAttempts = 10;
+	/**
+	 * 第一次重试前的最长等待，毫秒，之后每次加倍
+	 */
+	private long baseBackoffMillis = 2;
+	/**
+	 * 重试等待的上限，毫秒
+	 */
+	private long maxBackoffMillis = 100;
+
+	private final AtomicLong attempts = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	public OptimisticUpdater() {
+		this.jedisUtil = JedisUtil.getInstance();
+	}
+
+	/**
+	 * 以字符串读-改-写
+	 *
+	 * @param key
+	 * @param function
+	 *            根据旧值(key不存在时为null)计算新值
+	 * @return 写入的新值
+	 */
+	public String compareAndUpdate(String key, final Function<String, String> function) {
+		byte[] result = update(SafeEncoder.encode(key), new Function<byte[], byte[]>() {
+			@Override
+			public byte[] apply(byte[] old) {
+				String oldValue = old == null ? null : SafeEncoder.encode(old);
+				String newValue = function.apply(oldValue);
+				if (newValue == oldValue) {
+					return old;
+				}
+				return newValue == null ? null : SafeEncoder.encode(newValue);
+			}
+		});
+		return result == null ? null : SafeEncoder.encode(result);
+	}
+
+	/**
+	 * 以对象读-改-写，序列化方式与{@link JedisUtil.Strings#setObject(String, Serializable)}相同
+	 *
+	 * @param key
+	 * @param function
+	 *            根据旧值(key不存在时为null)计算新值
+	 * @return 写入的新值
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Serializable> T compareAndUpdateObject(String key, final Function<T, T> function) {
+		final Object[] holder = new Object[1];
+		update(SafeEncoder.encode(key), new Function<byte[], byte[]>() {
+			@Override
+			public byte[] apply(byte[] old) {
+				T oldValue = old == null ? null : (T) SerializeUtil.unserizlize(old);
+				T newValue = function.apply(oldValue);
+				holder[0] = newValue;
+				if (newValue == oldValue) {
+					return old;
+				}
+				return newValue == null ? null : SerializeUtil.serialize(newValue);
+			}
+		});
+		return (T) holder[0];
+	}
+
+	private byte[] update(byte[] key, Function<byte[], byte[]> function) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			for (int attempt = 0;; attempt++) {
+				attempts.incrementAndGet();
+				jedis.watch(key);
+				Pipeline pipeline = jedis.pipelined();
+				Response<byte[]> value = pipeline.get(key);
+				Response<Long> ttl = pipeline.pttl(key);
+				pipeline.sync();
+				byte[] old = value.get();
+				byte[] updated = function.apply(old);
+				if (updated == old) {
+					jedis.unwatch();
+					return old;
+				}
+				Transaction transaction = jedis.multi();
+				if (updated == null) {
+					transaction.del(key);
+				} else {
+					transaction.set(key, updated);
+					if (ttl.get() > 0) {
+						transaction.pexpire(key, ttl.get());
+					}
+				}
+				List<Object> result = transaction.exec();
+				if (result != null && !result.isEmpty()) {
+					return updated;
+				}
+				conflicts.incrementAndGet();
+				if (attempt + 1 >= maxAttempts) {
+					exhausted.incrementAndGet();
+					throw new IllegalStateException(
+							"compareAndUpdate conflict after " + maxAttempts + " attempts,key:" + SafeEncoder.encode(key));
+				}
+				backoff(attempt);
+			}
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private void backoff(int attempt) {
+		long bound = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while retrying compareAndUpdate", e);
+		}
+	}
+
+	/**
+	 * 原子地增加数值，结果超出[min, max]时不修改
+	 *
+	 * @param key
+	 * @param delta
+	 * @param min
+	 * @param max
+	 * @return 新值，超出范围时返回null
+	 */
+	public Long addWithinBounds(String key, long delta, long min, long max) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return (Long) ADD_SCRIPT.eval(jedis, Arrays.asList(SafeEncoder.encode(key)),
+					RedisScript.args(delta, min, max));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	/**
+	 * 原子地修改json对象的一个字段，key不存在时新建对象
+	 *
+	 * @param key
+	 * @param field
+	 * @param value
+	 *            字段的新值，转为json后写入
+	 */
+	public void setJsonField(String key, final String field, final Object value) {
+		compareAndUpdate(key, new Function<String, String>() {
+			@Override
+			public String apply(String old) {
+				JSONObject obj = parseJson(old);
+				obj.put(field, JSON.toJSON(value));
+				return JSON.toJSONString(obj);
+			}
+		});
+	}
+
+	/**
+	 * 原子地增加json对象中一个整数字段，字段不存在时视为0
+	 *
+	 * @param key
+	 * @param field
+	 * @param delta
+	 * @return 新值
+	 */
+	public long incrJsonField(String key, final String field, final long delta) {
+		final long[] holder = new long[1];
+		compareAndUpdate(key, new Function<String, String>() {
+			@Override
+			public String apply(String old) {
+				JSONObject obj = parseJson(old);
+				Long value = obj.getLong(field);
+				holder[0] = (value == null ? 0 : value) + delta;
+				obj.put(field, holder[0]);
+				return JSON.toJSONString(obj);
+			}
+		});
+		return holder[0];
+	}
+
+	/**
+	 * 保留字段顺序，小数解析为BigDecimal，整数解析为Long或BigInteger，写回时不丢失精度
+	 */
+	static JSONObject parseJson(String json) {
+		return json == null ? new JSONObject(true) : JSON.parseObject(json, Feature.OrderedField);
+	}
+
+	/**
+	 * @return WATCH/MULTI/EXEC的总尝试次数
+	 */
+	public long getAttempts() {
+		return attempts.get();
+	}
+
+	/**
+	 * @return EXEC因key被修改而失败的次数
+	 */
+	public long getConflicts() {
+		return conflicts.get();
+	}
+
+	/**
+	 * @return 重试次数耗尽的次数
+	 */
+	public long getExhausted() {
+		return exhausted.get();
+	}
+
+	/**
+	 * @return 冲突次数占尝试次数的比例
+	 */
+	public double getConflictRate() {
+		long total = attempts.get();
+		return total == 0 ? 0 : (double) conflicts.get() / total;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public void setBaseBackoffMillis(long baseBackoffMillis) {
+		this.baseBackoffMillis = baseBackoffMillis;
+	}
+
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+}
@@ -0,0 +1,110 @@
+package org.wuzl.util.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分布式限流器基类</br>
+ * <ul>
+ * <li>子类实现具体算法，每次向redis申请许可都只执行一次lua脚本</li>
+ * <li>leaseSize大于1时每个节点一次向redis预领一批许可放在本地，本地有剩余时不访问网络</li>
+ * <li>预领的许可超过leaseMillis未用完即作废，避免长时间空闲后集中放出突发流量</li>
+ * </ul>
+ * 预领会让各节点之间的许可分配不均，leaseSize应远小于限流值
+ *
+ * @author ziliang.wu
+ */
+public abstract class RateLimiter {
+
+	/**
+	 * 每次向redis预领的许可数，为1时不预领
+	 */
+	private int leaseSize = 1;
+	/**
+	 * 预领许可的有效期，毫秒
+	 */
+	private long leaseMillis = 100;
+
+	private final AtomicLong leased = new AtomicLong();
+
+	private volatile long leaseExpireTime;
+
+	private final Object leaseLock = new Object();
+
+	/**
+	 * 获取一个许可，不阻塞
+	 *
+	 * @return 获取成功返回true
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/**
+	 * 获取permits个许可，不阻塞，许可不足时不消耗任何许可
+	 *
+	 * @param permits
+	 * @return 获取成功返回true
+	 */
+	public boolean tryAcquire(int permits) {
+		if (permits <= 0) {
+			throw new IllegalArgumentException("permits must be positive");
+		}
+		if (leaseSize <= 1) {
+			return acquire(permits, permits) > 0;
+		}
+		if (tryLocal(permits)) {
+			return true;
+		}
+		synchronized (leaseLock) {
+			if (tryLocal(permits)) {
+				return true;
+			}
+			long now = System.currentTimeMillis();
+			long remain = now < leaseExpireTime ? leased.get() : 0;
+			if (remain == 0) {
+				leased.set(0);
+			}
+			long granted = acquire(permits - remain, Math.max(leaseSize, permits - remain));
+			if (granted == 0) {
+				return false;
+			}
+			leased.addAndGet(granted);
+			leaseExpireTime = now + leaseMillis;
+			return tryLocal(permits);
+		}
+	}
+
+	private boolean tryLocal(int permits) {
+		if (System.currentTimeMillis() >= leaseExpireTime) {
+			return false;
+		}
+		while (true) {
+			long current = leased.get();
+			if (current < permits) {
+				return false;
+			}
+			if (leased.compareAndSet(current, current - permits)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 向redis申请许可
+	 *
+	 * @param min
+	 *            至少需要的许可数，可用许可不足min时不扣减
+	 * @param max
+	 *            最多申请的许可数
+	 * @return 实际获得的许可数，0或者min到max之间
+	 */
+	protected abstract long acquire(long min, long max);
+
+	public void setLeaseSize(int leaseSize) {
+		this.leaseSize = leaseSize;
+	}
+
+	public void setLeaseMillis(long leaseMillis) {
+		this.leaseMillis = leaseMillis;
+	}
+}
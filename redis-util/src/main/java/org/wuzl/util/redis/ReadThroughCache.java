@@ -0,0 +1,252 @@
+package org.wuzl.util.redis;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 带空值缓存的读穿透缓存</br>
+ * <ul>
+ * <li>redis中没有时通过{@link Loader}从数据库加载并写入redis，序列化方式与{@link JedisUtil.Strings#setObject(String, Serializable)}相同</li>
+ * <li>数据库中也不存在时写入一个字节的空值标记，过期时间较短，避免不存在的id每次都穿透到数据库</li>
+ * <li>可选的本地空值缓存，重复查询不存在的key时不访问redis，超过最大条数时淘汰最久未访问的</li>
+ * <li>分别统计命中、本地空值命中、redis空值命中和加载次数</li>
+ * </ul>
+ *
+ * @author ziliang.wu
+ */
+public class ReadThroughCache<T extends Serializable> {
+
+	/**
+	 * 空值标记，java序列化的结果不会只有一个字节
+	 */
+	private static final byte[] NULL_SENTINEL = new byte[] { 0 };
+
+	/**
+	 * 从数据源加载数据
+	 */
+	public interface Loader<T> {
+		/**
+		 * @return 数据不存在时返回null
+		 */
+		T load(String key);
+	}
+
+	private final JedisUtil jedisUtil;
+
+	private final Loader<T> loader;
+
+	/**
+	 * 数据的过期时间，秒，小于等于0时不过期
+	 */
+	private int ttlSeconds = 3600;
+	/**
+	 * 空值标记的过期时间，秒
+	 */
+	private int nullTtlSeconds = 60;
+	/**
+	 * 本地空值缓存的有效期，毫秒，小于等于0时不使用本地空值缓存
+	 */
+	private long localNullTtlMillis = 5000;
+	/**
+	 * 本地空值缓存的最大条数
+	 */
+	private int localNullMaxSize = 10000;
+
+	/**
+	 * 按访问顺序排列的本地空值缓存，key为数据的key，value为过期时间，读写都需要锁
+	 */
+	private final LinkedHashMap<String, Long> localNulls = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > localNullMaxSize;
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong localNullHits = new AtomicLong();
+	private final AtomicLong nullHits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong nullLoads = new AtomicLong();
+
+	public ReadThroughCache(Loader<T> loader) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.loader = loader;
+	}
+
+	/**
+	 * 读取数据，缓存中没有时加载
+	 *
+	 * @param key
+	 * @return 数据不存在时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(String key) {
+		if (isLocalNull(key)) {
+			localNullHits.incrementAndGet();
+			return null;
+		}
+		byte[] rawKey = SafeEncoder.encode(key);
+		byte[] value;
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			value = jedis.get(rawKey);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+		if (value != null) {
+			if (Arrays.equals(value, NULL_SENTINEL)) {
+				nullHits.incrementAndGet();
+				putLocalNull(key);
+				return null;
+			}
+			hits.incrementAndGet();
+			return (T) SerializeUtil.unserizlize(value);
+		}
+		loads.incrementAndGet();
+		T loaded = loader.load(key);
+		if (loaded == null) {
+			nullLoads.incrementAndGet();
+			write(rawKey, NULL_SENTINEL, nullTtlSeconds);
+			putLocalNull(key);
+		} else {
+			write(rawKey, SerializeUtil.serialize(loaded), ttlSeconds);
+		}
+		return loaded;
+	}
+
+	/**
+	 * 写入数据，同时清除该key的空值缓存
+	 */
+	public void put(String key, T value) {
+		removeLocalNull(key);
+		if (value == null) {
+			write(SafeEncoder.encode(key), NULL_SENTINEL, nullTtlSeconds);
+		} else {
+			write(SafeEncoder.encode(key), SerializeUtil.serialize(value), ttlSeconds);
+		}
+	}
+
+	/**
+	 * 删除缓存，数据源新增或修改数据后调用
+	 */
+	public void invalidate(String key) {
+		removeLocalNull(key);
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			jedis.del(key);
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	private void write(byte[] key, byte[] value, int seconds) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			if (seconds > 0) {
+				jedis.setex(key, JedisUtil.jitterTtl(seconds), value);
+			} else {
+				jedis.set(key, value);
+			}
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+
+	boolean isLocalNull(String key) {
+		if (localNullTtlMillis <= 0) {
+			return false;
+		}
+		synchronized (localNulls) {
+			Long expireTime = localNulls.get(key);
+			if (expireTime == null) {
+				return false;
+			}
+			if (expireTime > System.currentTimeMillis()) {
+				return true;
+			}
+			localNulls.remove(key);
+			return false;
+		}
+	}
+
+	void putLocalNull(String key) {
+		if (localNullTtlMillis <= 0) {
+			return;
+		}
+		long expireTime = System.currentTimeMillis() + localNullTtlMillis;
+		synchronized (localNulls) {
+			localNulls.put(key, expireTime);
+		}
+	}
+
+	private void removeLocalNull(String key) {
+		synchronized (localNulls) {
+			localNulls.remove(key);
+		}
+	}
+
+	int localNullSize() {
+		synchronized (localNulls) {
+			return localNulls.size();
+		}
+	}
+
+	/**
+	 * @return redis中的数据命中次数
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return 本地空值缓存命中次数
+	 */
+	public long getLocalNullHits() {
+		return localNullHits.get();
+	}
+
+	/**
+	 * @return redis中空值标记命中次数
+	 */
+	public long getNullHits() {
+		return nullHits.get();
+	}
+
+	/**
+	 * @return 调用{@link Loader}的次数
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+
+	/**
+	 * @return 加载结果为null的次数
+	 */
+	public long getNullLoads() {
+		return nullLoads.get();
+	}
+
+	public void setTtlSeconds(int ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	public void setNullTtlSeconds(int nullTtlSeconds) {
+		this.nullTtlSeconds = nullTtlSeconds;
+	}
+
+	public void setLocalNullTtlMillis(long localNullTtlMillis) {
+		this.localNullTtlMillis = localNullTtlMillis;
+	}
+
+	public void setLocalNullMaxSize(int localNullMaxSize) {
+		this.localNullMaxSize = localNullMaxSize;
+	}
+}
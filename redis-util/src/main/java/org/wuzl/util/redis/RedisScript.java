@@ -0,0 +1,79 @@
+package org.wuzl.util.redis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * lua脚本封装</br>
+ * 优先使用EVALSHA执行，服务端没有缓存该脚本时(NOSCRIPT)自动退回EVAL，避免每次调用都传输完整脚本
+ *
+ * @author ziliang.wu
+ */
+public class RedisScript {
+
+	private final byte[] script;
+
+	private final byte[] sha1;
+
+	public RedisScript(String script) {
+		this.script = SafeEncoder.encode(script);
+		this.sha1 = SafeEncoder.encode(sha1Hex(this.script));
+	}
+
+	/**
+	 * 在指定连接上执行脚本
+	 *
+	 * @param jedis
+	 * @param keys
+	 *            脚本中的KEYS
+	 * @param args
+	 *            脚本中的ARGV
+	 * @return 脚本返回值
+	 */
+	public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+		try {
+			return jedis.evalsha(sha1, keys, args);
+		} catch (JedisDataException e) {
+			String message = e.getMessage();
+			if (message == null || !message.startsWith("NOSCRIPT")) {
+				throw e;
+			}
+			return jedis.eval(script, keys, args);
+		}
+	}
+
+	/**
+	 * 把参数转为脚本的ARGV
+	 */
+	public static List<byte[]> args(Object... values) {
+		List<byte[]> args = new ArrayList<byte[]>(values.length);
+		for (Object value : values) {
+			args.add(SafeEncoder.encode(String.valueOf(value)));
+		}
+		return args;
+	}
+
+	public String getSha1() {
+		return SafeEncoder.encode(sha1);
+	}
+
+	private static String sha1Hex(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported", e);
+		}
+	}
+}
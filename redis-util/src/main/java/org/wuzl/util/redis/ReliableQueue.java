@@ -0,0 +1,319 @@
+package org.wuzl.util.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 基于List的可靠队列(至少一次)</br>
+ * <ul>
+ * <li>生产者LPUSH到队列，消费者从队列尾部取出并原子地放入自己的processing列表</li>
+ * <li>批量获取通过lua脚本一次移动最多N条，队列为空时用BRPOPLPUSH阻塞等待</li>
+ * <li>处理完成后批量ack，从processing列表中删除</li>
+ * <li>消费者每次获取或心跳都会刷新活跃时间，reaper把长时间不活跃的消费者的processing列表放回队列</li>
+ * </ul>
+ * 每个消费线程使用各自的{@link Consumer}，吞吐随消费线程数增加
+ *
+ * @author ziliang.wu
+ */
+public class ReliableQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReliableQueue.class);
+
+	/**
+	 * KEYS[1]队列 KEYS[2]processing列表 KEYS[3]消费者活跃时间 ARGV[1]最多条数 ARGV[2]当前时间
+	 */
+	private static final RedisScript CLAIM_SCRIPT = new RedisScript("local items = {} "
+			+ "for i = 1, tonumber(ARGV[1]) do "
+			+ "local v = redis.call('RPOPLPUSH', KEYS[1], KEYS[2]) "
+			+ "if not v then break end "
+			+ "items[#items + 1] = v end "
+			+ "redis.call('ZADD', KEYS[3], ARGV[2], KEYS[2]) "
+			+ "return items");
+
+	/**
+	 * KEYS[1]队列 KEYS[2]processing列表 KEYS[3]消费者活跃时间 ARGV[1]判定为不活跃的时间点
+	 */
+	private static final RedisScript REQUEUE_SCRIPT = new RedisScript(
+			"local score = redis.call('ZSCORE', KEYS[3], KEYS[2]) "
+					+ "if score and tonumber(score) > tonumber(ARGV[1]) then return 0 end "
+					+ "local n = 0 "
+					+ "while true do "
+					+ "local v = redis.call('RPOP', KEYS[2]) "
+					+ "if not v then break end "
+					+ "redis.call('RPUSH', KEYS[1], v) n = n + 1 end "
+					+ "redis.call('ZREM', KEYS[3], KEYS[2]) "
+					+ "return n");
+
+	/**
+	 * 阻塞获取时每次BRPOPLPUSH的最长阻塞时间，秒，每次阻塞前刷新消费者的活跃时间
+	 */
+	private static final int BLOCK_SLICE_SECONDS = 5;
+
+	private final JedisUtil jedisUtil;
+
+	private final String queueKey;
+
+	private final String consumersKey;
+
+	private ScheduledExecutorService reaper;
+
+	/**
+	 * @param queueKey
+	 *            队列的key
+	 */
+	public ReliableQueue(String queueKey) {
+		this.jedisUtil = JedisUtil.getInstance();
+		this.queueKey = queueKey;
+		this.consumersKey = queueKey + ":consumers";
+	}
+
+	/**
+	 * 批量入队
+	 *
+	 * @param items
+	 * @return 队列长度
+	 */
+	public long offer(String... items) {
+		return JedisUtil.LISTS.lpush(queueKey, items);
+	}
+
+	/**
+	 * 队列中等待处理的条数
+	 */
+	public long size() {
+		return JedisUtil.LISTS.llen(queueKey);
+	}
+
+	/**
+	 * 创建消费者，每个消费线程使用一个
+	 *
+	 * @param consumerId
+	 *            消费者id，在同一队列中必须唯一，进程重启后沿用同一id可以立即接管自己未ack的数据
+	 */
+	public Consumer consumer(String consumerId) {
+		return new Consumer(queueKey + ":processing:" + consumerId);
+	}
+
+	/**
+	 * 把超过staleMillis没有活跃的消费者的processing列表放回队列
+	 *
+	 * @param staleMillis
+	 * @return 放回队列的条数
+	 */
+	public long reap(long staleMillis) {
+		long deadline = System.currentTimeMillis() - staleMillis;
+		long requeued = 0;
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			Set<String> staleConsumers = jedis.zrangeByScore(consumersKey, Double.NEGATIVE_INFINITY, deadline);
+			for (String processingKey : staleConsumers) {
+				Object n = REQUEUE_SCRIPT.eval(jedis, keys(processingKey),
+						Arrays.asList(SafeEncoder.encode(String.valueOf(deadline))));
+				requeued += (Long) n;
+				if ((Long) n > 0) {
+					logger.warn("requeue stale in-flight items,queue:{},processing:{},count:{}", queueKey,
+							processingKey, n);
+				}
+			}
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+		return requeued;
+	}
+
+	/**
+	 * 启动后台reaper
+	 *
+	 * @param staleMillis
+	 *            消费者超过该时间不活跃即认为已失效
+	 * @param intervalMillis
+	 *            检查间隔
+	 */
+	public synchronized void startReaper(final long staleMillis, long intervalMillis) {
+		if (reaper != null) {
+			return;
+		}
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-reliable-queue-reaper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reap(staleMillis);
+				} catch (Exception e) {
+					logger.error("reap queue error,queue:" + queueKey, e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+		if (reaper != null) {
+			reaper.shutdownNow();
+			reaper = null;
+		}
+	}
+
+	private List<byte[]> keys(String processingKey) {
+		return Arrays.asList(SafeEncoder.encode(queueKey), SafeEncoder.encode(processingKey),
+				SafeEncoder.encode(consumersKey));
+	}
+
+	/**
+	 * 队列的消费者，非线程安全
+	 */
+	public class Consumer {
+
+		private final String processingKey;
+
+		Consumer(String processingKey) {
+			this.processingKey = processingKey;
+		}
+
+		/**
+		 * 非阻塞地获取最多max条
+		 *
+		 * @param max
+		 * @return 获取到的数据，队列为空时返回空集合
+		 */
+		public List<String> claim(int max) {
+			Jedis jedis = jedisUtil.getJedis();
+			try {
+				return claim(jedis, max);
+			} finally {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 获取最多max条，队列为空时最多阻塞timeoutSeconds秒</br>
+		 * 阻塞前把活跃时间登记到本次阻塞结束的时刻，阻塞期间不会被reaper移除，阻塞中移入processing列表的数据在消费者崩溃后仍会被放回队列
+		 *
+		 * @param max
+		 * @param timeoutSeconds
+		 *            0表示一直等待
+		 * @return 获取到的数据，超时返回空集合
+		 */
+		public List<String> claim(int max, int timeoutSeconds) {
+			Jedis jedis = jedisUtil.getJedis();
+			try {
+				List<String> items = claim(jedis, max);
+				if (!items.isEmpty()) {
+					return items;
+				}
+				long now = System.currentTimeMillis();
+				long deadline = timeoutSeconds == 0 ? Long.MAX_VALUE : now + timeoutSeconds * 1000L;
+				String first = null;
+				while (first == null) {
+					long remaining = deadline - now;
+					if (remaining <= 0) {
+						return items;
+					}
+					int seconds = (int) Math.min(BLOCK_SLICE_SECONDS, (remaining + 999) / 1000);
+					jedis.zadd(consumersKey, now + seconds * 1000L, processingKey);
+					first = jedis.brpoplpush(queueKey, processingKey, seconds);
+					now = System.currentTimeMillis();
+				}
+				items = new ArrayList<String>(max);
+				items.add(first);
+				// 刷新活跃时间，批量获取的脚本中也会刷新
+				if (max > 1) {
+					items.addAll(claim(jedis, max - 1));
+				} else {
+					jedis.zadd(consumersKey, now, processingKey);
+				}
+				return items;
+			} finally {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<String> claim(Jedis jedis, int max) {
+			List<byte[]> args = Arrays.asList(SafeEncoder.encode(String.valueOf(max)),
+					SafeEncoder.encode(String.valueOf(System.currentTimeMillis())));
+			List<byte[]> raw = (List<byte[]>) CLAIM_SCRIPT.eval(jedis, keys(processingKey), args);
+			List<String> items = new ArrayList<String>(raw.size());
+			for (byte[] item : raw) {
+				items.add(SafeEncoder.encode(item));
+			}
+			return items;
+		}
+
+		/**
+		 * 批量确认处理完成
+		 *
+		 * @param items
+		 * @return 确认成功的条数
+		 */
+		public long ack(Collection<String> items) {
+			if (items.isEmpty()) {
+				return 0;
+			}
+			Jedis jedis = jedisUtil.getJedis();
+			try {
+				Pipeline pipeline = jedis.pipelined();
+				List<Response<Long>> responses = new ArrayList<Response<Long>>(items.size());
+				for (String item : items) {
+					responses.add(pipeline.lrem(processingKey, 1, item));
+				}
+				pipeline.sync();
+				long count = 0;
+				for (Response<Long> response : responses) {
+					count += response.get();
+				}
+				return count;
+			} finally {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 处理耗时较长时定期调用，避免被reaper判定为失效
+		 */
+		public void heartbeat() {
+			Jedis jedis = jedisUtil.getJedis();
+			try {
+				jedis.zadd(consumersKey, System.currentTimeMillis(), processingKey);
+			} finally {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+
+		/**
+		 * 把自己未ack的数据放回队列，通常在消费者正常停止时调用
+		 *
+		 * @return 放回队列的条数
+		 */
+		public long release() {
+			Jedis jedis = jedisUtil.getJedis();
+			try {
+				return (Long) REQUEUE_SCRIPT.eval(jedis, keys(processingKey),
+						Arrays.asList(SafeEncoder.encode(String.valueOf(Long.MAX_VALUE))));
+			} finally {
+				jedisUtil.returnJedis(jedis);
+			}
+		}
+	}
+}
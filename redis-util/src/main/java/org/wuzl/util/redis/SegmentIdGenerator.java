@@ -0,0 +1,197 @@
+package org.wuzl.util.redis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 号段模式的分布式id生成器</br>
+ * <ul>
+ * <li>每次通过INCRBY向redis申请一个号段，号段内的id在本地用AtomicLong无锁分配</li>
+ * <li>当前号段剩余比例低于prefetchRatio时异步申请下一个号段(双buffer)，切换时通常无需等待网络</li>
+ * <li>号段大小根据消耗速度自适应：一个号段用完的时间短于目标时间的一半时加倍，超过两倍时减半</li>
+ * </ul>
+ * id全局唯一且单节点内递增，节点之间不保证连续；进程重启会丢弃未用完的号段
+ *
+ * @author ziliang.wu
+ */
+public class SegmentIdGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(SegmentIdGenerator.class);
+
+	private final String key;
+
+	private long minSegmentSize = 1000;
+
+	private long maxSegmentSize = 1000000;
+	/**
+	 * 当前号段剩余比例低于该值时预取下一个号段
+	 */
+	private double prefetchRatio = 0.2;
+	/**
+	 * 期望一个号段使用的时间，毫秒
+	 */
+	private long targetSegmentMillis = 60000;
+
+	private final Object sizeLock = new Object();
+
+	private long segmentSize;
+
+	private long lastAllocateTime;
+
+	private volatile Segment current;
+
+	private Future<Segment> prefetch;
+
+	private final ExecutorService loader;
+
+	/**
+	 * @param key
+	 *            计数器的key
+	 */
+	public SegmentIdGenerator(String key) {
+		this.key = key;
+		this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redis-id-segment-loader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 获取下一个id
+	 */
+	public long nextId() {
+		while (true) {
+			Segment segment = current;
+			if (segment != null) {
+				long id = segment.next.getAndIncrement();
+				if (id <= segment.end) {
+					// 每个id只会被一个线程取到，只有取到预取点的线程触发预取
+					if (id == segment.prefetchId) {
+						prefetch(segment);
+					}
+					return id;
+				}
+			}
+			switchSegment(segment);
+		}
+	}
+
+	/**
+	 * 停止预取线程
+	 */
+	public void shutdown() {
+		loader.shutdownNow();
+	}
+
+	/**
+	 * 向redis申请size个id
+	 *
+	 * @return 号段的最后一个id
+	 */
+	protected long allocate(long size) {
+		return JedisUtil.STRINGS.incrBy(key, size);
+	}
+
+	private synchronized void prefetch(Segment from) {
+		if (prefetch != null || current != from || loader.isShutdown()) {
+			return;
+		}
+		prefetch = loader.submit(new Callable<Segment>() {
+			@Override
+			public Segment call() throws Exception {
+				return load();
+			}
+		});
+	}
+
+	private synchronized void switchSegment(Segment exhausted) {
+		if (current != exhausted) {
+			return;
+		}
+		Segment next = null;
+		Future<Segment> future = prefetch;
+		prefetch = null;
+		if (future != null) {
+			try {
+				next = future.get();
+			} catch (ExecutionException e) {
+				logger.error("prefetch id segment error,key:" + key, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for id segment,key:" + key, e);
+			}
+		}
+		if (next == null) {
+			next = load();
+		}
+		current = next;
+	}
+
+	private Segment load() {
+		long size;
+		synchronized (sizeLock) {
+			long now = System.currentTimeMillis();
+			size = segmentSize == 0 ? minSegmentSize : segmentSize;
+			if (lastAllocateTime > 0) {
+				long elapsed = now - lastAllocateTime;
+				long newSize = size;
+				if (elapsed < targetSegmentMillis / 2) {
+					newSize = Math.min(size * 2, maxSegmentSize);
+				} else if (elapsed > targetSegmentMillis * 2) {
+					newSize = Math.max(size / 2, minSegmentSize);
+				}
+				if (newSize != size) {
+					logger.info("resize id segment,key:{},elapsed:{}ms,size:{}->{}", key, elapsed, size, newSize);
+					size = newSize;
+				}
+			}
+			segmentSize = size;
+			lastAllocateTime = now;
+		}
+		long end = allocate(size);
+		return new Segment(end - size + 1, end, end - (long) (size * prefetchRatio));
+	}
+
+	public void setMinSegmentSize(long minSegmentSize) {
+		this.minSegmentSize = minSegmentSize;
+	}
+
+	public void setMaxSegmentSize(long maxSegmentSize) {
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	public void setPrefetchRatio(double prefetchRatio) {
+		this.prefetchRatio = prefetchRatio;
+	}
+
+	public void setTargetSegmentMillis(long targetSegmentMillis) {
+		this.targetSegmentMillis = targetSegmentMillis;
+	}
+
+	/**
+	 * 号段，id范围[next初始值, end]
+	 */
+	private static class Segment {
+		final AtomicLong next;
+		final long end;
+		final long prefetchId;
+
+		Segment(long start, long end, long prefetchId) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+			this.prefetchId = prefetchId;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.wuzl.util.redis;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 滑动窗口限流，任意windowMillis时间内最多limit个许可</br>
+ * <ul>
+ * <li>log模式：每个许可作为SortSet的一个成员，score为获取时间，精确但内存随limit增长</li>
+ * <li>计数模式：按窗口分段计数，用上一段的计数按重叠比例加权估算，每个key只占两个计数器</li>
+ * </ul>
+ * 两种模式都只执行一次lua脚本
+ *
+ * @author ziliang.wu
+ */
+public class SlidingWindowRateLimiter extends RateLimiter {
+
+	/**
+	 * KEYS[1]SortSet ARGV[1]当前时间 ARGV[2]窗口 ARGV[3]限流值 ARGV[4]最少 ARGV[5]最多 ARGV[6]成员前缀
+	 */
+	private static final RedisScript LOG_SCRIPT = new RedisScript(
+			"local now = tonumber(ARGV[1]) local window = tonumber(ARGV[2]) "
+					+ "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window) "
+					+ "local available = tonumber(ARGV[3]) - redis.call('ZCARD', KEYS[1]) "
+					+ "if available < tonumber(ARGV[4]) then return 0 end "
+					+ "local granted = math.min(available, tonumber(ARGV[5])) "
+					+ "for i = 1, granted do redis.call('ZADD', KEYS[1], now, ARGV[6] .. ':' .. i) end "
+					+ "redis.call('PEXPIRE', KEYS[1], window) "
+					+ "return granted");
+
+	/**
+	 * KEYS[1]当前段计数 KEYS[2]上一段计数 ARGV[1]上一段的权重 ARGV[2]限流值 ARGV[3]最少 ARGV[4]最多 ARGV[5]过期时间
+	 */
+	private static final RedisScript COUNTER_SCRIPT = new RedisScript(
+			"local previous = tonumber(redis.call('GET', KEYS[2]) or '0') "
+					+ "local current = tonumber(redis.call('GET', KEYS[1]) or '0') "
+					+ "local available = math.floor(tonumber(ARGV[2]) - previous * tonumber(ARGV[1]) - current) "
+					+ "if available < tonumber(ARGV[3]) then return 0 end "
+					+ "local granted = math.min(available, tonumber(ARGV[4])) "
+					+ "redis.call('INCRBY', KEYS[1], granted) "
+					+ "redis.call('PEXPIRE', KEYS[1], ARGV[5]) "
+					+ "return granted");
+
+	private final JedisUtil jedisUtil;
+
+	private final String key;
+
+	private final long limit;
+
+	private final long windowMillis;
+
+	private final boolean log;
+
+	private final String memberPrefix = UUID.randomUUID().toString();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	public SlidingWindowRateLimiter(String key, long limit, long windowMillis) {
+		this(key, limit, windowMillis, false);
+	}
+
+	/**
+	 * @param key
+	 *            限流的key
+	 * @param limit
+	 *            窗口内最多的许可数
+	 * @param windowMillis
+	 *            窗口长度，毫秒
+	 * @param log
+	 *            是否使用log模式
+	 */
+	public SlidingWindowRateLimiter(String key, long limit, long windowMillis, boolean log) {
+		if (limit <= 0 || windowMillis <= 0) {
+			throw new IllegalArgumentException(
+					"illegal sliding window config,limit:" + limit + ",windowMillis:" + windowMillis);
+		}
+		this.jedisUtil = JedisUtil.getInstance();
+		this.key = key;
+		this.limit = limit;
+		this.windowMillis = windowMillis;
+		this.log = log;
+	}
+
+	@Override
+	protected long acquire(long min, long max) {
+		long now = System.currentTimeMillis();
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			if (log) {
+				return (Long) LOG_SCRIPT.eval(jedis, Arrays.asList(SafeEncoder.encode(key)),
+						RedisScript.args(now, windowMillis, limit, min, max, memberPrefix + ":" + sequence.incrementAndGet()));
+			}
+			long index = now / windowMillis;
+			double previousWeight = 1 - (double) (now % windowMillis) / windowMillis;
+			return (Long) COUNTER_SCRIPT.eval(jedis,
+					Arrays.asList(SafeEncoder.encode(key + ":" + index), SafeEncoder.encode(key + ":" + (index - 1))),
+					RedisScript.args(previousWeight, limit, min, max, windowMillis * 2));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.wuzl.util.redis;
+
+import java.util.Arrays;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 令牌桶限流</br>
+ * 桶的令牌数和上次补充时间保存在一个hash中，补充、判断和扣减在一次lua调用中完成；允许突发流量不超过桶容量
+ *
+ * @author ziliang.wu
+ */
+public class TokenBucketRateLimiter extends RateLimiter {
+
+	/**
+	 * KEYS[1]桶 ARGV[1]容量 ARGV[2]每毫秒补充的令牌数 ARGV[3]当前时间 ARGV[4]最少 ARGV[5]最多
+	 */
+	private static final RedisScript ACQUIRE_SCRIPT = new RedisScript(
+			"local capacity = tonumber(ARGV[1]) local rate = tonumber(ARGV[2]) local now = tonumber(ARGV[3]) "
+					+ "local data = redis.call('HMGET', KEYS[1], 'tokens', 'ts') "
+					+ "local tokens = tonumber(data[1]) or capacity "
+					+ "local ts = tonumber(data[2]) or now "
+					+ "if now > ts then tokens = math.min(capacity, tokens + (now - ts) * rate) ts = now end "
+					+ "local granted = math.min(tonumber(ARGV[5]), math.floor(tokens)) "
+					+ "if granted < tonumber(ARGV[4]) then granted = 0 end "
+					+ "tokens = tokens - granted "
+					+ "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts)) "
+					+ "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000) "
+					+ "return granted");
+
+	private final JedisUtil jedisUtil;
+
+	private final byte[] key;
+
+	private final long capacity;
+
+	private final double permitsPerMillis;
+
+	/**
+	 * @param key
+	 *            令牌桶的key
+	 * @param capacity
+	 *            桶容量，即允许的最大突发
+	 * @param permitsPerSecond
+	 *            每秒补充的令牌数
+	 */
+	public TokenBucketRateLimiter(String key, long capacity, double permitsPerSecond) {
+		if (capacity <= 0 || permitsPerSecond <= 0) {
+			throw new IllegalArgumentException(
+					"illegal token bucket config,capacity:" + capacity + ",permitsPerSecond:" + permitsPerSecond);
+		}
+		this.jedisUtil = JedisUtil.getInstance();
+		this.key = SafeEncoder.encode(key);
+		this.capacity = capacity;
+		this.permitsPerMillis = permitsPerSecond / 1000;
+	}
+
+	@Override
+	protected long acquire(long min, long max) {
+		Jedis jedis = jedisUtil.getJedis();
+		try {
+			return (Long) ACQUIRE_SCRIPT.eval(jedis, Arrays.asList(key),
+					RedisScript.args(capacity, permitsPerMillis, System.currentTimeMillis(), min, max));
+		} finally {
+			jedisUtil.returnJedis(jedis);
+		}
+	}
+}
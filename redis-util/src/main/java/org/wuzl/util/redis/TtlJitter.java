@@ -0,0 +1,97 @@
+package org.wuzl.util.redis;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 过期时间随机抖动</br>
+ * 同一批写入的key使用相同的过期时间时会在同一秒集中过期，给redis的主动过期和数据库带来突发压力；
+ * 通过{@link JedisUtil#setTtlJitter(TtlJitter)}设置后，JedisUtil中所有带过期时间的方法都会按比例随机调整过期时间
+ *
+ * @author ziliang.wu
+ */
+public class TtlJitter {
+
+	/**
+	 * 抖动的分布
+	 */
+	public enum Distribution {
+		/**
+		 * 在[ttl*(1-ratio), ttl*(1+ratio)]内均匀分布
+		 */
+		UNIFORM,
+		/**
+		 * 在[ttl, ttl*(1+ratio)]内均匀分布，过期时间不会短于指定值
+		 */
+		EXTEND,
+		/**
+		 * 以ttl为均值、ttl*ratio/2为标准差的正态分布，截断在[ttl*(1-ratio), ttl*(1+ratio)]
+		 */
+		GAUSSIAN
+	}
+
+	private final double ratio;
+
+	private final Distribution distribution;
+
+	/**
+	 * @param ratio
+	 *            抖动比例，例如0.1表示上下10%
+	 */
+	public TtlJitter(double ratio) {
+		this(ratio, Distribution.UNIFORM);
+	}
+
+	public TtlJitter(double ratio, Distribution distribution) {
+		if (ratio < 0 || ratio >= 1) {
+			throw new IllegalArgumentException("jitter ratio must be in [0, 1):" + ratio);
+		}
+		this.ratio = ratio;
+		this.distribution = distribution;
+	}
+
+	/**
+	 * 对过期时间加上随机抖动
+	 *
+	 * @param seconds
+	 *            过期时间，小于等于0时原样返回
+	 * @return 调整后的过期时间，至少为1
+	 */
+	public int apply(int seconds) {
+		if (seconds <= 0 || ratio == 0) {
+			return seconds;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		double factor;
+		switch (distribution) {
+		case EXTEND:
+			factor = 1 + random.nextDouble() * ratio;
+			break;
+		case GAUSSIAN:
+			factor = 1 + Math.max(-ratio, Math.min(ratio, random.nextGaussian() * ratio / 2));
+			break;
+		default:
+			factor = 1 + (random.nextDouble() * 2 - 1) * ratio;
+		}
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(seconds * factor)));
+	}
+
+	/**
+	 * 把一批key的过期时间均匀分散到一个时间窗口内
+	 *
+	 * @param seconds
+	 *            基础过期时间
+	 * @param windowSeconds
+	 *            分散的窗口长度
+	 * @param index
+	 *            当前key在这一批中的序号，从0开始
+	 * @param count
+	 *            这一批的key数量
+	 * @return seconds到seconds+windowSeconds之间的过期时间
+	 */
+	public static int spread(int seconds, int windowSeconds, long index, long count) {
+		if (seconds <= 0 || windowSeconds <= 0 || count <= 1) {
+			return seconds;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, seconds + windowSeconds * (index % count) / count);
+	}
+}
@@ -0,0 +1,36 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+public class AdaptivePoolSizerTest {
+	@Test
+	public void testNextSize() {
+		JedisPoolConfig config = new JedisPoolConfig();
+		config.setMaxTotal(100);
+		config.setMaxIdle(100);
+		config.setMinIdle(0);
+		ManagedJedisPool pool = new ManagedJedisPool(config, "127.0.0.1", 6379, 2000, null, 0);
+		try {
+			AdaptivePoolSizer sizer = new AdaptivePoolSizer(pool);
+			sizer.setMaxTotalLimit(120);
+			sizer.setQuietRounds(2);
+			// 等待时扩容，不超过上限
+			assertArrayEquals(new int[] { 120, 120, 90 }, sizer.nextSize(100, 90, 10, 0));
+			// 使用率正常时不调整
+			assertNull(sizer.nextSize(100, 60, 1, 0));
+			// 连续空闲后缩容
+			assertNull(sizer.nextSize(100, 10, 0, 0));
+			assertArrayEquals(new int[] { 20, 20, 10 }, sizer.nextSize(100, 10, 0, 0));
+			// 不低于下限
+			sizer.nextSize(100, 1, 0, 0);
+			assertArrayEquals(new int[] { 8, 8, 1 }, sizer.nextSize(100, 1, 0, 0));
+		} finally {
+			pool.destroy();
+		}
+	}
+}
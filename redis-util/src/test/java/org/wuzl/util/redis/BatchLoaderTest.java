@@ -0,0 +1,87 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+public class BatchLoaderTest {
+	@Test
+	public void testDeduplicate() {
+		BatchLoader loader = new BatchLoader();
+		BatchLoader.Result a = loader.get("user:1");
+		assertSame(a, loader.get("user:1"));
+		BatchLoader.Result name = loader.hget("user:2", "name");
+		assertSame(name, loader.hget("user:2", "name"));
+		assertNotSame(name, loader.hget("user:2", "age"));
+		assertNotSame(a, loader.hget("user:1", "name"));
+		assertEquals(2, loader.getDeduplicated());
+		// 未加载的结果不会被清除
+		loader.clear();
+		assertSame(a, loader.get("user:1"));
+		assertEquals(0, loader.getDispatches());
+	}
+
+	@Test(timeout = 10000)
+	public void testPoolFailure() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(1);
+		breaker.onFailure();
+		ManagedJedisPool pool = new ManagedJedisPool(new JedisPoolConfig(), "127.0.0.1", 6379, 2000, null, 0);
+		pool.setCircuitBreaker(breaker);
+		Field field = JedisUtil.class.getDeclaredField("jedisPool");
+		field.setAccessible(true);
+		Object previous = field.get(null);
+		field.set(null, pool);
+		try {
+			BatchLoader loader = new BatchLoader();
+			BatchLoader.Result a = loader.get("user:1");
+			BatchLoader.Result name = loader.hget("user:2", "name");
+			try {
+				a.join();
+				fail();
+			} catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof CircuitOpenException);
+			}
+			try {
+				name.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof CircuitOpenException);
+			}
+			// 失败的结果已移除，重新登记会再次加载
+			assertNotSame(a, loader.get("user:1"));
+			assertEquals(1, loader.getDispatches());
+
+			// 组合的结果在转换时触发加载，不会一直等待
+			CompletableFuture<Integer> length = loader.get("user:3").toCompletableFuture()
+					.thenApply(new Function<String, Integer>() {
+						@Override
+						public Integer apply(String value) {
+							return value.length();
+						}
+					});
+			try {
+				CompletableFuture.allOf(length, loader.hget("user:4", "name").toCompletableFuture()).join();
+				fail();
+			} catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof CircuitOpenException);
+			}
+			assertEquals(3, loader.getDispatches());
+		} finally {
+			field.set(null, previous);
+			pool.destroy();
+		}
+	}
+}
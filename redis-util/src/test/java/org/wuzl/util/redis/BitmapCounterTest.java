@@ -0,0 +1,28 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class BitmapCounterTest {
+	@Test
+	public void testOffsetRange() {
+		BitmapCounter counter = new BitmapCounter("dau");
+		// 超出范围的id在借用连接前就被拒绝
+		try {
+			counter.mark("20161019", -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			counter.mark(Collections.singletonMap("20161019", Arrays.asList(1L, 1L << 32)));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
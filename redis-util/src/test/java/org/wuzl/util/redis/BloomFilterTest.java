@@ -0,0 +1,25 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+	@Test
+	public void testSizing() {
+		long bits = BloomFilter.optimalBits(1000000, 0.01);
+		assertEquals(9585059, bits);
+		assertEquals(7, BloomFilter.optimalHashes(1000000, bits));
+	}
+
+	@Test
+	public void testMurmur3() {
+		assertArrayEquals(new long[] { 0, 0 }, BloomFilter.murmur3(new byte[0]));
+		long[] hash = BloomFilter.murmur3(
+				"The quick brown fox jumps over the lazy dog".getBytes(Charset.forName("utf-8")));
+		assertArrayEquals(new long[] { 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L }, hash);
+	}
+}
@@ -0,0 +1,101 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+import org.wuzl.util.redis.BulkLoader.RespWriter;
+
+import redis.clients.util.SafeEncoder;
+
+public class BulkLoaderTest {
+	@Test
+	public void testRespWriter() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RespWriter writer = new RespWriter(out, 16);
+		writer.beginCommand(3);
+		writer.arg("SET");
+		byte[] line = SafeEncoder.encode("xxkey1234567890123456789yy");
+		writer.arg(line, 2, 22);
+		writer.arg("");
+		writer.flush();
+		assertEquals("*3\r\n$3\r\nSET\r\n$22\r\nkey1234567890123456789\r\n$0\r\n\r\n", out.toString("utf-8"));
+	}
+
+	@Test
+	public void testReadReply() throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(
+				SafeEncoder.encode("+OK\r\n:12\r\n$5\r\nhello\r\n$-1\r\n*2\r\n$1\r\na\r\n-ERR wrong\r\n-ERR x\r\n"));
+		assertNull(BulkLoader.readReply(in));
+		assertNull(BulkLoader.readReply(in));
+		assertNull(BulkLoader.readReply(in));
+		assertNull(BulkLoader.readReply(in));
+		assertEquals("ERR wrong", BulkLoader.readReply(in));
+		assertEquals("ERR x", BulkLoader.readReply(in));
+	}
+
+	@Test(timeout = 10000)
+	public void testStalledServer() throws IOException {
+		// 接受连接但从不响应
+		ServerSocket server = new ServerSocket(0);
+		File file = File.createTempFile("bulk", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(SafeEncoder.encode("SET\tk1\tv1\nSET\tk2\tv2\n"));
+			out.close();
+			BulkLoader loader = new BulkLoader("127.0.0.1", server.getLocalPort(), null, 0);
+			loader.setTimeout(200);
+			try {
+				loader.load(file, BulkLoader.Format.LINE);
+				fail();
+			} catch (SocketTimeoutException e) {
+				// 有命令等待响应时读超时
+			}
+		} finally {
+			file.delete();
+			server.close();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testStalledServerWhileWriting() throws IOException {
+		// 不读取数据的服务端，写线程阻塞在socket写入上
+		ServerSocket server = new ServerSocket();
+		server.setReceiveBufferSize(4096);
+		server.bind(new InetSocketAddress("127.0.0.1", 0));
+		File file = File.createTempFile("bulk", ".txt");
+		try {
+			byte[] value = new byte[1000];
+			Arrays.fill(value, (byte) 'v');
+			byte[] line = SafeEncoder.encode("SET\tk\t" + SafeEncoder.encode(value) + "\n");
+			FileOutputStream out = new FileOutputStream(file);
+			for (int i = 0; i < 16 * 1024; i++) {
+				out.write(line);
+			}
+			out.close();
+			BulkLoader loader = new BulkLoader("127.0.0.1", server.getLocalPort(), null, 0);
+			loader.setTimeout(200);
+			loader.setMaxInFlight(1000000);
+			try {
+				loader.load(file, BulkLoader.Format.LINE);
+				fail();
+			} catch (SocketTimeoutException e) {
+				// 响应线程超时后关闭socket，写线程不再阻塞
+			}
+		} finally {
+			file.delete();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.net.ServerSocket;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class CircuitBreakerTest {
+	@Test
+	public void testTransitions() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(4);
+		breaker.setOpenMillis(50);
+		breaker.setHalfOpenProbes(2);
+		for (int i = 0; i < 2; i++) {
+			breaker.acquirePermission();
+			breaker.onSuccess(1);
+		}
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getStateValue());
+		try {
+			breaker.acquirePermission();
+			fail();
+		} catch (CircuitOpenException e) {
+			assertEquals(1, breaker.getRejected());
+		}
+
+		Thread.sleep(60);
+		breaker.acquirePermission();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.acquirePermission();
+		try {
+			breaker.acquirePermission();
+			fail();
+		} catch (CircuitOpenException e) {
+			assertEquals(2, breaker.getRejected());
+		}
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		Thread.sleep(60);
+		breaker.acquirePermission();
+		breaker.onSuccess(1);
+		breaker.acquirePermission();
+		breaker.onSuccess(1);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testSlowCalls() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(5);
+		breaker.setSlowCallMillis(100);
+		breaker.setSlowCallRateThreshold(0.6);
+		breaker.onSuccess(10);
+		breaker.onSuccess(-1);
+		breaker.onSuccess(200);
+		breaker.onSuccess(200);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onSuccess(200);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testCall() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		Supplier<String> fallback = new Supplier<String>() {
+			@Override
+			public String get() {
+				return "fallback";
+			}
+		};
+		assertEquals("value", breaker.call(new Supplier<String>() {
+			@Override
+			public String get() {
+				return "value";
+			}
+		}, fallback));
+		assertEquals("fallback", breaker.call(new Supplier<String>() {
+			@Override
+			public String get() {
+				throw new CircuitOpenException("open");
+			}
+		}, fallback));
+	}
+
+	@Test
+	public void testProbeEpoch() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(1);
+		breaker.setOpenMillis(50);
+		breaker.setHalfOpenProbes(1);
+		breaker.acquirePermission();
+		int before = breaker.probeEpoch();
+		assertEquals(-1, before);
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		Thread.sleep(60);
+		breaker.acquirePermission();
+		int probe = breaker.probeEpoch();
+		// 打开前借出的连接归还时不作为探测结果
+		breaker.onSuccess(1, before);
+		breaker.onFailure(before);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(1, probe);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test(timeout = 10000)
+	public void testCommandFailureOpens() throws Exception {
+		// 接受连接但从不响应，命令读超时
+		ServerSocket server = new ServerSocket(0);
+		ManagedJedisPool pool = new ManagedJedisPool(new JedisPoolConfig(), "127.0.0.1", server.getLocalPort(), 200,
+				null, 0);
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(2);
+		pool.setCircuitBreaker(breaker);
+		Field field = JedisUtil.class.getDeclaredField("jedisPool");
+		field.setAccessible(true);
+		Object previous = field.get(null);
+		field.set(null, pool);
+		try {
+			for (int i = 0; i < 2; i++) {
+				try {
+					JedisUtil.STRINGS.get("k");
+					fail();
+				} catch (JedisConnectionException e) {
+					// 读超时
+				}
+			}
+			assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+			assertEquals(0, pool.getNumActive());
+			try {
+				JedisUtil.STRINGS.get("k");
+				fail();
+			} catch (CircuitOpenException e) {
+				assertEquals(1, breaker.getRejected());
+			}
+		} finally {
+			field.set(null, previous);
+			pool.destroy();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HashMapperTest {
+
+	enum Level {
+		NORMAL, VIP
+	}
+
+	static class Profile {
+		static final String IGNORED = "ignored";
+		String name;
+		int age;
+		Long score;
+		Level level;
+		List<String> tags;
+		transient String cache;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		HashMapper<Profile> mapper = new HashMapper<Profile>(Profile.class);
+		Profile profile = new Profile();
+		profile.name = "wuzl";
+		profile.age = 30;
+		profile.level = Level.VIP;
+		profile.tags = Arrays.asList("a", "b");
+		profile.cache = "x";
+
+		Map<String, String> hash = mapper.toHash(profile);
+		assertEquals(5, hash.size());
+		assertEquals("30", hash.get("age"));
+		assertEquals("VIP", hash.get("level"));
+		assertNull(hash.get("score"));
+
+		hash.remove("score");
+		Profile copy = mapper.fromHash(hash);
+		assertEquals("wuzl", copy.name);
+		assertEquals(30, copy.age);
+		assertNull(copy.score);
+		assertEquals(Level.VIP, copy.level);
+		assertEquals(Arrays.asList("a", "b"), copy.tags);
+		assertNull(copy.cache);
+	}
+
+	@Test
+	public void testDirtyFieldsOfProjection() {
+		HashMapper<Profile> mapper = new HashMapper<Profile>(Profile.class);
+		HashMapper.Tracked<Profile> tracked = mapper.toTracked(new String[] { "name", "score" },
+				Arrays.asList("wuzl", "100"));
+		assertEquals(Collections.emptyMap(), mapper.dirtyFields(tracked));
+
+		// 未读取的age保持默认值0，不应覆盖redis中的值
+		tracked.get().name = "ziliang";
+		tracked.get().score = null;
+		Map<String, String> dirty = mapper.dirtyFields(tracked);
+		assertEquals(2, dirty.size());
+		assertEquals("ziliang", dirty.get("name"));
+		assertTrue(dirty.containsKey("score"));
+		assertNull(dirty.get("score"));
+
+		// 未读取的字段显式标记后写入
+		tracked.get().level = Level.NORMAL;
+		assertEquals(2, mapper.dirtyFields(tracked).size());
+		tracked.markDirty("level");
+		dirty = mapper.dirtyFields(tracked);
+		assertEquals(Arrays.asList("name", "score", "level"), new ArrayList<String>(dirty.keySet()));
+		assertEquals("NORMAL", dirty.get("level"));
+	}
+}
@@ -0,0 +1,63 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+public class HyperLogLogCounterTest {
+	@Test
+	public void testDrainGroupsByKey() {
+		HyperLogLogCounter counter = new HyperLogLogCounter();
+		counter.offer("uv:1", "a");
+		counter.offer("uv:2", "b");
+		counter.offer("uv:1", "c");
+		assertEquals(3, counter.getPendingCount());
+		Map<String, List<String>> batch = counter.drain();
+		assertEquals(2, batch.size());
+		assertEquals(Arrays.asList("a", "c"), batch.get("uv:1"));
+		assertEquals(Arrays.asList("b"), batch.get("uv:2"));
+		assertEquals(0, counter.getPendingCount());
+		assertEquals(0, counter.flush());
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushFailureKeepsPending() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(1);
+		breaker.onFailure();
+		ManagedJedisPool pool = new ManagedJedisPool(new JedisPoolConfig(), "127.0.0.1", 6379, 2000, null, 0);
+		pool.setCircuitBreaker(breaker);
+		Field field = JedisUtil.class.getDeclaredField("jedisPool");
+		field.setAccessible(true);
+		Object previous = field.get(null);
+		field.set(null, pool);
+		try {
+			HyperLogLogCounter counter = new HyperLogLogCounter();
+			counter.setBatchSize(3);
+			counter.offer("uv:1", "a");
+			counter.offer("uv:2", "b");
+			try {
+				// 达到batchSize时立即写入
+				counter.offer("uv:1", "c");
+				fail();
+			} catch (CircuitOpenException e) {
+				// 写入失败的元素放回缓冲，等待下次重试
+				assertEquals(3, counter.getPendingCount());
+			}
+			Map<String, List<String>> batch = counter.drain();
+			assertEquals(2, batch.get("uv:1").size());
+			assertEquals(1, batch.get("uv:2").size());
+		} finally {
+			field.set(null, previous);
+			pool.destroy();
+		}
+	}
+}
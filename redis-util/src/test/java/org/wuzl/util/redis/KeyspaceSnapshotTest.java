@@ -0,0 +1,100 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+public class KeyspaceSnapshotTest {
+	@Test
+	public void testRecordFormat() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		KeyspaceSnapshot.writeHeader(out);
+		KeyspaceSnapshot.writeRecord(out, new KeyspaceSnapshot.Record("k1".getBytes(), -1, new byte[] { 1, 2 }));
+		KeyspaceSnapshot.writeRecord(out, new KeyspaceSnapshot.Record(new byte[0], 5000, new byte[0]));
+		out.writeInt(-1);
+		out.close();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		KeyspaceSnapshot.readHeader(in, new File("test"));
+		KeyspaceSnapshot.Record record = KeyspaceSnapshot.readRecord(in);
+		assertArrayEquals("k1".getBytes(), record.key);
+		assertEquals(-1, record.ttl);
+		assertArrayEquals(new byte[] { 1, 2 }, record.dump);
+		record = KeyspaceSnapshot.readRecord(in);
+		assertEquals(0, record.key.length);
+		assertEquals(5000, record.ttl);
+		assertNull(KeyspaceSnapshot.readRecord(in));
+	}
+
+	@Test
+	public void testBadHeader() {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream("NOTSNAP!".getBytes()));
+		try {
+			KeyspaceSnapshot.readHeader(in, new File("test"));
+			fail();
+		} catch (IOException e) {
+			assertEquals("not a snapshot file:test", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRestoreTtl() {
+		assertEquals(0, KeyspaceSnapshot.restoreTtl(-1));
+		assertEquals(1500, KeyspaceSnapshot.restoreTtl(1500));
+		assertEquals(Integer.MAX_VALUE, KeyspaceSnapshot.restoreTtl(Long.MAX_VALUE));
+	}
+
+	@Test(timeout = 10000)
+	public void testRestoreConnectionFailure() throws Exception {
+		File file = File.createTempFile("snapshot", ".bin");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		KeyspaceSnapshot.writeHeader(out);
+		for (int i = 0; i < 3; i++) {
+			KeyspaceSnapshot.writeRecord(out, new KeyspaceSnapshot.Record(("k" + i).getBytes(), -1, new byte[] { 1 }));
+		}
+		out.writeInt(-1);
+		out.close();
+
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMinimumCalls(1);
+		breaker.onFailure();
+		ManagedJedisPool pool = new ManagedJedisPool(new JedisPoolConfig(), "127.0.0.1", 6379, 2000, null, 0);
+		pool.setCircuitBreaker(breaker);
+		Field field = JedisUtil.class.getDeclaredField("jedisPool");
+		field.setAccessible(true);
+		Object previous = field.get(null);
+		field.set(null, pool);
+		try {
+			KeyspaceSnapshot snapshot = new KeyspaceSnapshot();
+			snapshot.setRestoreBatch(2);
+			try {
+				snapshot.restore(file, 2, false);
+				fail();
+			} catch (IOException e) {
+				// 连接异常的批次计为失败，导入结束后抛出
+				assertEquals("snapshot restore incomplete,restored:0,failed:3", e.getMessage());
+				assertTrue(e.getCause() instanceof CircuitOpenException);
+			}
+		} finally {
+			field.set(null, previous);
+			pool.destroy();
+			file.delete();
+		}
+	}
+}
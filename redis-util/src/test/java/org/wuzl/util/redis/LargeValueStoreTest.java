@@ -0,0 +1,37 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.wuzl.util.redis.LargeValueStore.Manifest;
+
+import redis.clients.util.SafeEncoder;
+
+public class LargeValueStoreTest {
+	@Test
+	public void testManifest() {
+		byte[] encoded = LargeValueStore.encodeManifest(new Manifest(0xABCL, 1000, 300, 4));
+		assertTrue(LargeValueStore.isManifest(encoded));
+		assertFalse(LargeValueStore.isManifest(SafeEncoder.encode("plain value")));
+
+		Manifest manifest = LargeValueStore.decodeManifest(encoded);
+		assertEquals(0xABCL, manifest.generation);
+		assertEquals(1000, manifest.totalLength);
+		assertEquals(300, manifest.chunkSize);
+		assertEquals(4, manifest.chunkCount);
+
+		List<byte[]> keys = LargeValueStore.chunkKeys(SafeEncoder.encode("blob"), manifest);
+		assertEquals(4, keys.size());
+		assertEquals("blob:chunk:abc:0", SafeEncoder.encode(keys.get(0)));
+		assertEquals("blob:chunk:abc:3", SafeEncoder.encode(keys.get(3)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalConfig() {
+		new LargeValueStore(100, 200, 8);
+	}
+}
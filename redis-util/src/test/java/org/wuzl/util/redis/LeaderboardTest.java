@@ -0,0 +1,43 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LeaderboardTest {
+	@Test
+	public void testRankTop() {
+		List<Leaderboard.Entry> merged = new ArrayList<Leaderboard.Entry>(Arrays.asList(
+				new Leaderboard.Entry("a", 10, 0), new Leaderboard.Entry("b", 30, 0),
+				new Leaderboard.Entry("c", 20, 0), new Leaderboard.Entry("d", 20, 0)));
+		List<Leaderboard.Entry> top = Leaderboard.rankTop(merged, 3);
+		assertEquals(3, top.size());
+		assertEquals("b", top.get(0).getMember());
+		assertEquals(0, top.get(0).getRank());
+		// 同分按member倒序，与ZREVRANGE一致，排名相同
+		assertEquals("d", top.get(1).getMember());
+		assertEquals(1, top.get(1).getRank());
+		assertEquals("c", top.get(2).getMember());
+		assertEquals(1, top.get(2).getRank());
+	}
+
+	@Test
+	public void testWindow() {
+		Leaderboard.Entry self = new Leaderboard.Entry("m", 20, 0);
+		List<Leaderboard.Entry> candidates = new ArrayList<Leaderboard.Entry>(Arrays.asList(
+				new Leaderboard.Entry("a", 10, 0), self, new Leaderboard.Entry("b", 30, 0),
+				new Leaderboard.Entry("z", 20, 0), new Leaderboard.Entry("c", 5, 0)));
+		List<Leaderboard.Entry> window = Leaderboard.window(candidates, self, 1);
+		assertEquals(3, window.size());
+		assertEquals("z", window.get(0).getMember());
+		assertEquals("m", window.get(1).getMember());
+		assertEquals("a", window.get(2).getMember());
+		window = Leaderboard.window(candidates, self, 5);
+		assertEquals(5, window.size());
+		assertEquals("b", window.get(0).getMember());
+	}
+}
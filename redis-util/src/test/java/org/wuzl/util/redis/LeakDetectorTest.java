@@ -0,0 +1,29 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+public class LeakDetectorTest {
+	@Test
+	public void testCheck() {
+		LeakDetector detector = new LeakDetector();
+		detector.setLeakMillis(0);
+		detector.setSampleRate(1);
+		Jedis leaked = new Jedis("127.0.0.1");
+		Jedis returned = new Jedis("127.0.0.1");
+		detector.onBorrow(leaked);
+		detector.onBorrow(returned);
+		detector.onReturn(returned);
+		assertEquals(1, detector.getBorrowed());
+		assertEquals(1, detector.check());
+		// 同一个连接只告警一次
+		assertEquals(0, detector.check());
+		assertEquals(1, detector.getSuspects().size());
+		detector.onReturn(leaked);
+		assertEquals(0, detector.getBorrowed());
+		assertEquals(1, detector.getLeaks());
+	}
+}
@@ -0,0 +1,39 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.wuzl.util.redis.MemoryAnalyzer.FamilyStats;
+
+public class MemoryAnalyzerTest {
+	@Test
+	public void testFamilyOf() {
+		MemoryAnalyzer analyzer = new MemoryAnalyzer(Arrays.asList("user:", "order:"));
+		assertEquals("user:", analyzer.familyOf("user:1"));
+		assertEquals("order:", analyzer.familyOf("order:1"));
+		assertEquals(MemoryAnalyzer.OTHER, analyzer.familyOf("session:1"));
+	}
+
+	@Test
+	public void testParseSerializedLength() {
+		assertEquals(42, MemoryAnalyzer.parseSerializedLength(
+				"Value at:0x7f refcount:1 encoding:raw serializedlength:42 lru:123 lru_seconds_idle:5"));
+		assertEquals(-1, MemoryAnalyzer.parseSerializedLength("Value at:0x7f refcount:1"));
+	}
+
+	@Test
+	public void testEstimate() {
+		FamilyStats stats = new FamilyStats("user:");
+		stats.keyCount = 1000;
+		stats.addSample("string", 100, 100);
+		stats.addSample("string", 200, 200);
+		stats.addSample("hash", 300, 3);
+		assertEquals(200, stats.getAvgBytes(), 0.001);
+		assertEquals(200000, stats.getEstimatedBytes(), 0.001);
+		assertTrue(stats.getMarginOfError() > 0);
+		assertEquals(Long.valueOf(2), stats.getTypeCount().get("string"));
+	}
+}
@@ -0,0 +1,33 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class NamespaceTest {
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	@Test
+	public void testKey() {
+		Namespace namespace = JedisUtil.namespace("user:");
+		assertSame(namespace, JedisUtil.namespace("user:"));
+		assertArrayEquals("user:1001".getBytes(UTF8), namespace.key("1001"));
+		assertArrayEquals("user:吴子良".getBytes(UTF8), namespace.key("吴子良"));
+		assertArrayEquals("user:a\ud800".getBytes(UTF8), namespace.key("a\ud800"));
+		assertEquals("user:profile:", namespace.namespace("profile:").getPrefix());
+	}
+
+	@Test
+	public void testEncode() {
+		assertArrayEquals("abc".getBytes(UTF8), Namespace.encode("abc"));
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("值");
+		}
+		assertArrayEquals(sb.toString().getBytes(UTF8), Namespace.encode(sb.toString()));
+	}
+}
@@ -0,0 +1,84 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OffHeapNearCacheTest {
+	@Test
+	public void testPutAndGet() {
+		OffHeapNearCache cache = new OffHeapNearCache(1 << 20, 4);
+		cache.put("k1".getBytes(), "v1".getBytes());
+		cache.put("k2".getBytes(), new byte[0]);
+		assertArrayEquals("v1".getBytes(), cache.getIfPresent("k1".getBytes()));
+		assertArrayEquals(new byte[0], cache.getIfPresent("k2".getBytes()));
+		cache.put("k1".getBytes(), "v11".getBytes());
+		assertArrayEquals("v11".getBytes(), cache.getIfPresent("k1".getBytes()));
+		cache.invalidate("k1".getBytes());
+		assertNull(cache.getIfPresent("k1".getBytes()));
+		assertEquals(1, cache.size());
+
+		cache.setTtlMillis(-1);
+		cache.put("k3".getBytes(), "v3".getBytes());
+		assertNull(cache.getIfPresent("k3".getBytes()));
+	}
+
+	@Test
+	public void testClockEviction() {
+		// 每条24字节的头加20字节的数据，一段只能放5条
+		OffHeapNearCache cache = new OffHeapNearCache(220, 1);
+		for (int i = 0; i < 5; i++) {
+			cache.put(key(i), new byte[18]);
+		}
+		assertEquals(5, cache.size());
+		assertNotNull(cache.getIfPresent(key(0)));
+		for (int i = 5; i < 9; i++) {
+			cache.put(key(i), new byte[18]);
+		}
+		// 命中过的key(0)移到末尾，其余较早的被淘汰
+		assertNotNull(cache.getIfPresent(key(0)));
+		assertNull(cache.getIfPresent(key(1)));
+		assertNotNull(cache.getIfPresent(key(8)));
+		assertEquals(5, cache.size());
+		assertEquals(220, cache.getUsedBytes());
+		assertEquals(4, cache.getEvictions());
+		// 超过一段大小的不缓存
+		cache.put(key(9), new byte[200]);
+		assertNull(cache.getIfPresent(key(9)));
+	}
+
+	@Test
+	public void testWrapAround() {
+		// 不同长度的数据反复写入，段末尾不足一条时跳到段首
+		OffHeapNearCache cache = new OffHeapNearCache(1000, 1);
+		for (int i = 0; i < 2000; i++) {
+			cache.put(key(i % 100), new byte[i % 37]);
+			assertEquals(i % 37, cache.getIfPresent(key(i % 100)).length);
+			if (i % 7 == 0) {
+				cache.invalidate(key((i + 50) % 100));
+			}
+		}
+		assertTrue(cache.size() > 0);
+		assertTrue(cache.getUsedBytes() <= 1000);
+	}
+
+	@Test
+	public void testClose() {
+		OffHeapNearCache cache = new OffHeapNearCache(1 << 20, 4);
+		cache.put("k1".getBytes(), "v1".getBytes());
+		cache.close();
+		assertNull(cache.getIfPresent("k1".getBytes()));
+		cache.put("k2".getBytes(), "v2".getBytes());
+		assertNull(cache.getIfPresent("k2".getBytes()));
+		assertEquals(0, cache.size());
+		cache.close();
+	}
+
+	private static byte[] key(int i) {
+		return new byte[] { 'k', (byte) i };
+	}
+}
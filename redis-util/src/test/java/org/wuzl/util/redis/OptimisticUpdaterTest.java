@@ -0,0 +1,21 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+public class OptimisticUpdaterTest {
+	@Test
+	public void testParseJsonKeepsOtherFields() {
+		String json = "{\"id\":12345678901234567,\"price\":0.10,\"tags\":[],\"ext\":{},\"name\":\"a\"}";
+		JSONObject obj = OptimisticUpdater.parseJson(json);
+		obj.put("count", 1L);
+		// 未修改的字段原样写回，超过2^53的整数不变为浮点数，空数组不变为对象
+		assertEquals("{\"id\":12345678901234567,\"price\":0.10,\"tags\":[],\"ext\":{},\"name\":\"a\",\"count\":1}",
+				JSON.toJSONString(obj));
+		assertEquals("{}", JSON.toJSONString(OptimisticUpdater.parseJson(null)));
+	}
+}
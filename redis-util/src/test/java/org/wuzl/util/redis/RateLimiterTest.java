@@ -0,0 +1,67 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	/**
+	 * 本地模拟的固定许可池
+	 */
+	private static class FixedRateLimiter extends RateLimiter {
+		long available;
+		int remoteCalls;
+
+		FixedRateLimiter(long available) {
+			this.available = available;
+		}
+
+		@Override
+		protected long acquire(long min, long max) {
+			remoteCalls++;
+			if (available < min) {
+				return 0;
+			}
+			long granted = Math.min(available, max);
+			available -= granted;
+			return granted;
+		}
+	}
+
+	@Test
+	public void testWithoutLease() {
+		FixedRateLimiter limiter = new FixedRateLimiter(3);
+		assertTrue(limiter.tryAcquire(2));
+		assertFalse(limiter.tryAcquire(2));
+		assertTrue(limiter.tryAcquire());
+		assertEquals(3, limiter.remoteCalls);
+	}
+
+	@Test
+	public void testLease() {
+		FixedRateLimiter limiter = new FixedRateLimiter(25);
+		limiter.setLeaseSize(10);
+		limiter.setLeaseMillis(60000);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertFalse(limiter.tryAcquire());
+		assertEquals(4, limiter.remoteCalls);
+	}
+
+	@Test
+	public void testLeaseExpire() throws InterruptedException {
+		FixedRateLimiter limiter = new FixedRateLimiter(20);
+		limiter.setLeaseSize(10);
+		limiter.setLeaseMillis(10);
+		assertTrue(limiter.tryAcquire());
+		Thread.sleep(20);
+		assertTrue(limiter.tryAcquire());
+		// 第一批剩余的9个已作废
+		assertEquals(0, limiter.available);
+		assertFalse(limiter.tryAcquire(10));
+	}
+}
@@ -0,0 +1,54 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReadThroughCacheTest {
+
+	private static ReadThroughCache<String> cache() {
+		return new ReadThroughCache<String>(new ReadThroughCache.Loader<String>() {
+			@Override
+			public String load(String key) {
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testLocalNullEvictsLeastRecentlyUsed() {
+		ReadThroughCache<String> cache = cache();
+		cache.setLocalNullMaxSize(3);
+		cache.putLocalNull("a");
+		cache.putLocalNull("b");
+		cache.putLocalNull("c");
+		// 访问过的a不会被淘汰
+		assertTrue(cache.isLocalNull("a"));
+		cache.putLocalNull("d");
+		assertEquals(3, cache.localNullSize());
+		assertTrue(cache.isLocalNull("a"));
+		assertFalse(cache.isLocalNull("b"));
+		assertTrue(cache.isLocalNull("c"));
+		assertTrue(cache.isLocalNull("d"));
+	}
+
+	@Test
+	public void testLocalNullExpire() {
+		ReadThroughCache<String> cache = cache();
+		cache.setLocalNullTtlMillis(-1);
+		cache.putLocalNull("a");
+		assertFalse(cache.isLocalNull("a"));
+		assertEquals(0, cache.localNullSize());
+
+		cache.setLocalNullTtlMillis(1);
+		cache.putLocalNull("a");
+		long deadline = System.currentTimeMillis() + 1000;
+		while (cache.isLocalNull("a") && System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		assertFalse(cache.isLocalNull("a"));
+		assertEquals(0, cache.localNullSize());
+	}
+}
@@ -0,0 +1,68 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SegmentIdGeneratorTest {
+
+	/**
+	 * 本地模拟的INCRBY
+	 */
+	private static class LocalIdGenerator extends SegmentIdGenerator {
+		final AtomicLong counter = new AtomicLong();
+		final AtomicInteger allocations = new AtomicInteger();
+
+		LocalIdGenerator() {
+			super("test:id");
+		}
+
+		@Override
+		protected long allocate(long size) {
+			allocations.incrementAndGet();
+			return counter.addAndGet(size);
+		}
+	}
+
+	@Test
+	public void testSequential() {
+		LocalIdGenerator generator = new LocalIdGenerator();
+		generator.setMinSegmentSize(10);
+		for (long i = 1; i <= 35; i++) {
+			assertEquals(i, generator.nextId());
+		}
+		generator.shutdown();
+	}
+
+	@Test
+	public void testConcurrentUnique() throws InterruptedException {
+		final LocalIdGenerator generator = new LocalIdGenerator();
+		generator.setMinSegmentSize(100);
+		final Set<Long> ids = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						ids.add(generator.nextId());
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(80000, ids.size());
+		// 消耗很快，号段大小应已增长
+		assertTrue(generator.allocations.get() < 800);
+		generator.shutdown();
+	}
+}
@@ -0,0 +1,33 @@
+package org.wuzl.util.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TtlJitterTest {
+	@Test
+	public void testApply() {
+		TtlJitter uniform = new TtlJitter(0.1);
+		TtlJitter extend = new TtlJitter(0.1, TtlJitter.Distribution.EXTEND);
+		TtlJitter gaussian = new TtlJitter(0.1, TtlJitter.Distribution.GAUSSIAN);
+		for (int i = 0; i < 1000; i++) {
+			int ttl = uniform.apply(3600);
+			assertTrue(ttl >= 3240 && ttl <= 3960);
+			ttl = extend.apply(3600);
+			assertTrue(ttl >= 3600 && ttl <= 3960);
+			ttl = gaussian.apply(3600);
+			assertTrue(ttl >= 3240 && ttl <= 3960);
+		}
+		assertEquals(-1, uniform.apply(-1));
+		assertTrue(uniform.apply(1) >= 1);
+	}
+
+	@Test
+	public void testSpread() {
+		assertEquals(3600, TtlJitter.spread(3600, 600, 0, 100));
+		assertEquals(3900, TtlJitter.spread(3600, 600, 50, 100));
+		assertEquals(4194, TtlJitter.spread(3600, 600, 99, 100));
+		assertEquals(3600, TtlJitter.spread(3600, 600, 0, 1));
+	}
+}